@@ -0,0 +1,242 @@
+package com.brouken.player;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.Format;
+import androidx.media3.common.Timeline;
+import androidx.media3.common.util.Util;
+import androidx.media3.exoplayer.LoadControl;
+import androidx.media3.exoplayer.analytics.PlayerId;
+import androidx.media3.exoplayer.source.MediaSource;
+import androidx.media3.exoplayer.source.TrackGroupArray;
+import androidx.media3.exoplayer.trackselection.ExoTrackSelection;
+import androidx.media3.exoplayer.upstream.Allocator;
+import androidx.media3.exoplayer.upstream.BandwidthMeter;
+import androidx.media3.exoplayer.upstream.DefaultAllocator;
+
+import java.util.Locale;
+
+// Buffering by source class: local files are cheap to read again so they get a shallow buffer without back buffer,
+// LAN and internet sources get deeper ones. Profile is switched per media as the player is reused.
+// Each rebuffer, and network throughput close to the media bitrate, doubles the minimum buffer (up to 4x).
+// Byte cap of a profile is raised to hold the minimum buffer of high bitrate media, within a share of the heap.
+class AdaptiveLoadControl implements LoadControl {
+
+    static final String PROFILE_AUTO = "auto";
+
+    enum Profile {
+        LOCAL(5_000, 15_000, 1_000, 2_000, 0, 32),
+        LAN(20_000, 50_000, 1_500, 3_000, 15_000, 64),
+        INTERNET(50_000, 120_000, 2_500, 5_000, 30_000, 128);
+
+        final long minBufferUs;
+        final long maxBufferUs;
+        final long bufferForPlaybackUs;
+        final long bufferForPlaybackAfterRebufferUs;
+        final long backBufferUs;
+        final int maxBytes;
+
+        Profile(int minBufferMs, int maxBufferMs, int bufferForPlaybackMs, int bufferForPlaybackAfterRebufferMs, int backBufferMs, int maxMegabytes) {
+            this.minBufferUs = Util.msToUs(minBufferMs);
+            this.maxBufferUs = Util.msToUs(maxBufferMs);
+            this.bufferForPlaybackUs = Util.msToUs(bufferForPlaybackMs);
+            this.bufferForPlaybackAfterRebufferUs = Util.msToUs(bufferForPlaybackAfterRebufferMs);
+            this.backBufferUs = Util.msToUs(backBufferMs);
+            this.maxBytes = maxMegabytes * 1024 * 1024;
+        }
+    }
+
+    private static final int MAX_LEVEL = 2;
+    // Share of the (large) heap the buffer may take
+    private static final int HEAP_DIVISOR = 4;
+
+    private final DefaultAllocator allocator = new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    private final BandwidthMeter bandwidthMeter;
+    private final boolean lowRam;
+    private final int maxHeapBytes;
+
+    private volatile Profile profile = Profile.LOCAL;
+    private volatile int level;
+    private boolean isLoading;
+    private boolean stalled;
+    private long bitrate;
+    private int targetBufferBytes;
+
+    AdaptiveLoadControl(Context context, BandwidthMeter bandwidthMeter) {
+        this.bandwidthMeter = bandwidthMeter;
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        lowRam = activityManager.isLowRamDevice() || activityManager.getMemoryClass() <= 128;
+        maxHeapBytes = activityManager.getLargeMemoryClass() / HEAP_DIVISOR * 1024 * 1024;
+        targetBufferBytes = getTargetBufferBytes(0);
+    }
+
+    // Pinned profile name from settings or auto
+    static Profile getProfile(String pinned, Uri uri) {
+        if (!PROFILE_AUTO.equals(pinned)) {
+            try {
+                return Profile.valueOf(pinned.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+        final String scheme = uri.getScheme();
+        if (scheme == null || ContentResolver.SCHEME_CONTENT.equals(scheme) || ContentResolver.SCHEME_FILE.equals(scheme))
+            return Profile.LOCAL;
+        return isLocalHost(uri.getHost()) ? Profile.LAN : Profile.INTERNET;
+    }
+
+    private static boolean isLocalHost(String host) {
+        if (host == null)
+            return false;
+        host = host.toLowerCase(Locale.ROOT);
+        if (host.endsWith(".local") || host.equals("localhost") || !host.contains(".") && !host.contains(":"))
+            return true;
+        if (host.startsWith("10.") || host.startsWith("192.168.") || host.startsWith("127.") || host.startsWith("169.254."))
+            return true;
+        if (host.startsWith("172.")) {
+            final String[] parts = host.split("\\.");
+            try {
+                final int second = Integer.parseInt(parts[1]);
+                return second >= 16 && second <= 31;
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return false;
+            }
+        }
+        // IPv6 link local and unique local
+        host = host.replace("[", "");
+        return host.contains(":") && (host.startsWith("fe80:") || host.startsWith("fc") || host.startsWith("fd"));
+    }
+
+    // Called for every new media
+    void setProfile(Profile profile) {
+        Utils.log("Buffer profile " + profile);
+        this.profile = profile;
+        level = 0;
+    }
+
+    // Profile cap, raised to fit the largest minimum buffer (MAX_LEVEL) at selected bitrate with headroom for its peaks
+    private int getTargetBufferBytes(long bitrate) {
+        final int profileBytes = lowRam ? profile.maxBytes / 2 : profile.maxBytes;
+        final long bitrateBytes = bitrate / 8 * Util.usToMs(Math.min(profile.minBufferUs << MAX_LEVEL, profile.maxBufferUs)) / 1000 * 3 / 2;
+        return (int) Math.max(profileBytes, Math.min(bitrateBytes, maxHeapBytes));
+    }
+
+    private long getMinBufferUs() {
+        return Math.min(profile.minBufferUs << level, profile.maxBufferUs);
+    }
+
+    private void raiseLevel(String reason) {
+        if (level < MAX_LEVEL) {
+            level++;
+            Utils.log("Buffer level " + level + " after " + reason);
+        }
+    }
+
+    @Override
+    public void onPrepared(@NonNull PlayerId playerId) {
+        reset();
+    }
+
+    @Override
+    public void onTracksSelected(@NonNull Parameters parameters, @NonNull TrackGroupArray trackGroups, @NonNull ExoTrackSelection[] trackSelections) {
+        long bitrate = 0;
+        for (ExoTrackSelection trackSelection : trackSelections) {
+            if (trackSelection != null) {
+                final Format format = trackSelection.getSelectedFormat();
+                if (format.bitrate != Format.NO_VALUE) {
+                    bitrate += format.bitrate;
+                }
+            }
+        }
+        this.bitrate = bitrate;
+        targetBufferBytes = getTargetBufferBytes(bitrate);
+        allocator.setTargetBufferSize(targetBufferBytes);
+    }
+
+    @Override
+    public void onStopped(@NonNull PlayerId playerId) {
+        reset();
+    }
+
+    @Override
+    public void onReleased(@NonNull PlayerId playerId) {
+        reset();
+    }
+
+    private void reset() {
+        isLoading = false;
+        stalled = false;
+        allocator.reset();
+    }
+
+    @NonNull
+    @Override
+    public Allocator getAllocator() {
+        return allocator;
+    }
+
+    @Override
+    public long getBackBufferDurationUs(@NonNull PlayerId playerId) {
+        return profile.backBufferUs;
+    }
+
+    @Override
+    public boolean retainBackBufferFromKeyframe(@NonNull PlayerId playerId) {
+        return false;
+    }
+
+    @Override
+    public boolean shouldContinueLoading(@NonNull Parameters parameters) {
+        if (profile != Profile.LOCAL && bitrate > 0) {
+            final long estimate = bandwidthMeter.getBitrateEstimate();
+            if (estimate > 0 && estimate < bitrate * 3 / 2 && level == 0) {
+                raiseLevel("throughput " + estimate / 1000 + " kbps");
+            }
+        }
+
+        final boolean targetBufferSizeReached = allocator.getTotalBytesAllocated() >= targetBufferBytes;
+        long minBufferUs = getMinBufferUs();
+        if (parameters.playbackSpeed > 1) {
+            minBufferUs = Math.min(Util.getMediaDurationForPlayoutDuration(minBufferUs, parameters.playbackSpeed), profile.maxBufferUs);
+        }
+        if (parameters.bufferedDurationUs < minBufferUs) {
+            // Over the byte cap only keep loading when below what playback needs to start, not to stall
+            isLoading = !targetBufferSizeReached || parameters.bufferedDurationUs < profile.bufferForPlaybackUs;
+        } else if (parameters.bufferedDurationUs >= profile.maxBufferUs || targetBufferSizeReached) {
+            isLoading = false;
+        }
+        return isLoading;
+    }
+
+    @Override
+    public boolean shouldContinuePreloading(@NonNull Timeline timeline, @NonNull MediaSource.MediaPeriodId mediaPeriodId, long bufferedDurationUs) {
+        // Only while current media has all it needs
+        return !isLoading && allocator.getTotalBytesAllocated() < targetBufferBytes;
+    }
+
+    @Override
+    public boolean shouldStartPlayback(@NonNull Parameters parameters) {
+        if (parameters.rebuffering && !stalled) {
+            stalled = true;
+            raiseLevel("rebuffering");
+        }
+        final long bufferedDurationUs = Util.getPlayoutDurationForMediaDuration(parameters.bufferedDurationUs, parameters.playbackSpeed);
+        long minBufferDurationUs = parameters.rebuffering
+                ? Math.min(profile.bufferForPlaybackAfterRebufferUs << level, getMinBufferUs())
+                : profile.bufferForPlaybackUs;
+        if (parameters.targetLiveOffsetUs != C.TIME_UNSET) {
+            minBufferDurationUs = Math.min(parameters.targetLiveOffsetUs / 2, minBufferDurationUs);
+        }
+        final boolean start = bufferedDurationUs >= minBufferDurationUs
+                || allocator.getTotalBytesAllocated() >= targetBufferBytes;
+        if (start) {
+            stalled = false;
+        }
+        return start;
+    }
+}
@@ -0,0 +1,461 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Folder (MediaStore bucket) summary for the chooser: name, item count, newest item.
+// Kept on disk and brought up to date with rows changed since the last sync (MediaStore generation),
+// deleted rows are noticed from the row count and make it read everything again.
+@RequiresApi(api = Build.VERSION_CODES.R)
+class BucketIndex {
+
+    static final int KIND_VIDEO = 0;
+    static final int KIND_SUBTITLE = 1;
+
+    private static final String FILE_NAME = "buckets.idx";
+    private static final int VERSION = 1;
+
+    private static final String[] PROJECTION = new String[] {
+            MediaStore.MediaColumns._ID,
+            MediaStore.MediaColumns.BUCKET_ID,
+            MediaStore.MediaColumns.BUCKET_DISPLAY_NAME,
+            MediaStore.MediaColumns.DATE_MODIFIED,
+            MediaStore.MediaColumns.DATA
+    };
+
+    private static BucketIndex instance;
+
+    private final Context context;
+    private final File file;
+    private final Summary[] summaries = new Summary[2];
+    private boolean loaded;
+
+    static final class Bucket {
+        final long id;
+        String name;
+        // Directory and its modification time, to find out which folders need scanning
+        String path;
+        long pathModified;
+        int count;
+        // Seconds
+        long newest;
+
+        Bucket(long id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Summary {
+        final Map<String, String> versions = new HashMap<>();
+        final Map<String, Long> generations = new HashMap<>();
+        // Items sorted by id
+        long[] ids = new long[0];
+        long[] bucketIds = new long[0];
+        long[] dates = new long[0];
+        int size;
+        Map<Long, Bucket> buckets = new HashMap<>();
+    }
+
+    static synchronized BucketIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new BucketIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BucketIndex(Context context) {
+        this.context = context;
+        this.file = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    // Last known state without asking the provider, sorted by name
+    synchronized List<Bucket> getBuckets(int kind) {
+        load();
+        return sorted(summaries[kind]);
+    }
+
+    // Not to be called on main thread
+    synchronized List<Bucket> sync(int kind) {
+        load();
+        final long start = System.currentTimeMillis();
+        final Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+        Summary summary = summaries[kind];
+        boolean full = summary == null || !summary.versions.keySet().equals(volumes);
+        if (!full) {
+            for (String volume : volumes) {
+                if (!MediaStore.getVersion(context, volume).equals(summary.versions.get(volume))) {
+                    full = true;
+                    break;
+                }
+            }
+        }
+
+        int changed = 0;
+        if (!full) {
+            final Summary updated = update(kind, summary, volumes);
+            if (updated == null)
+                return sorted(summary);
+            changed = updated.size;
+            if (changed > 0 || !updated.generations.equals(summary.generations)) {
+                summary = merge(summary, updated);
+            }
+            // Deleted rows leave no trace in generations
+            full = summary.size != count(kind);
+        }
+        if (full) {
+            summary = read(kind, volumes);
+            if (summary == null)
+                return sorted(summaries[kind]);
+            changed = summary.size;
+        }
+        if (summary != summaries[kind]) {
+            summaries[kind] = summary;
+            write();
+        }
+        Utils.log("Buckets synced in " + (System.currentTimeMillis() - start) + " ms, " + (full ? "full, " : "") + changed + " rows read");
+        return sorted(summary);
+    }
+
+    // Scans folders modified since they were summarized, everything when there's no summary yet
+    void scanAsync() {
+        TaskScheduler.submit(this, TaskScheduler.PRIORITY_INDEX, "bucketScan", () -> {
+            final List<String> paths = new ArrayList<>();
+            synchronized (this) {
+                load();
+                if (summaries[KIND_VIDEO] == null && summaries[KIND_SUBTITLE] == null) {
+                    Utils.scanMediaStorage(context);
+                    return;
+                }
+                for (Summary summary : summaries) {
+                    if (summary == null)
+                        continue;
+                    for (Bucket bucket : summary.buckets.values()) {
+                        if (bucket.path == null)
+                            continue;
+                        final long modified = new File(bucket.path).lastModified();
+                        if (modified != bucket.pathModified) {
+                            bucket.pathModified = modified;
+                            if (!paths.contains(bucket.path))
+                                paths.add(bucket.path);
+                        }
+                    }
+                }
+                if (!paths.isEmpty())
+                    write();
+            }
+            if (!paths.isEmpty()) {
+                Utils.log("Scanning " + paths.size() + " modified folders");
+                MediaScannerConnection.scanFile(context, paths.toArray(new String[0]), null, null);
+            }
+        });
+    }
+
+    private static Uri getCollection(int kind, String volume) {
+        return kind == KIND_VIDEO ? MediaStore.Video.Media.getContentUri(volume) : MediaStore.Files.getContentUri(volume);
+    }
+
+    private static String getSelection(int kind) {
+        String selection = MediaStore.MediaColumns.BUCKET_DISPLAY_NAME + " IS NOT NULL";
+        if (kind == KIND_SUBTITLE) {
+            selection += " AND " + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
+        }
+        return selection;
+    }
+
+    // Everything, null when interrupted or failed
+    @Nullable
+    private Summary read(int kind, Set<String> volumes) {
+        final Summary summary = new Summary();
+        for (String volume : volumes) {
+            // Taken before reading, so changes made meanwhile are read next time
+            summary.versions.put(volume, MediaStore.getVersion(context, volume));
+            summary.generations.put(volume, MediaStore.getGeneration(context, volume));
+            if (!query(getCollection(kind, volume), getSelection(kind), summary))
+                return null;
+        }
+        sort(summary);
+        aggregate(summary);
+        return summary;
+    }
+
+    // Rows changed since the last sync only, null when interrupted or failed
+    @Nullable
+    private Summary update(int kind, Summary summary, Set<String> volumes) {
+        final Summary updated = new Summary();
+        for (String volume : volumes) {
+            final Long generation = summary.generations.get(volume);
+            final long current = MediaStore.getGeneration(context, volume);
+            updated.versions.put(volume, summary.versions.get(volume));
+            updated.generations.put(volume, current);
+            if (generation != null && generation == current)
+                continue;
+            final String selection = getSelection(kind) + " AND " + MediaStore.MediaColumns.GENERATION_MODIFIED + ">" + generation;
+            if (!query(getCollection(kind, volume), selection, updated))
+                return null;
+        }
+        sort(updated);
+        return updated;
+    }
+
+    // Items of the kind now in the provider, -1 when unknown
+    private int count(int kind) {
+        final Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, getSelection(kind));
+        try (Cursor cursor = context.getContentResolver().query(getCollection(kind, MediaStore.VOLUME_EXTERNAL),
+                new String[] { MediaStore.MediaColumns._ID }, queryArgs, null)) {
+            return cursor != null ? cursor.getCount() : -1;
+        } catch (Exception e) {
+            Log.w(Utils.TAG, e);
+            return -1;
+        }
+    }
+
+    private boolean query(Uri collection, String selection, Summary summary) {
+        final Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, MediaStore.MediaColumns._ID);
+        try (Cursor cursor = context.getContentResolver().query(collection, PROJECTION, queryArgs, null)) {
+            if (cursor == null)
+                return false;
+            final int columnId = cursor.getColumnIndex(MediaStore.MediaColumns._ID);
+            final int columnBucketId = cursor.getColumnIndex(MediaStore.MediaColumns.BUCKET_ID);
+            final int columnBucketName = cursor.getColumnIndex(MediaStore.MediaColumns.BUCKET_DISPLAY_NAME);
+            final int columnDate = cursor.getColumnIndex(MediaStore.MediaColumns.DATE_MODIFIED);
+            final int columnData = cursor.getColumnIndex(MediaStore.MediaColumns.DATA);
+            grow(summary, summary.size + cursor.getCount());
+            while (cursor.moveToNext()) {
+                if (Thread.currentThread().isInterrupted())
+                    return false;
+                final long bucketId = cursor.getLong(columnBucketId);
+                summary.ids[summary.size] = cursor.getLong(columnId);
+                summary.bucketIds[summary.size] = bucketId;
+                summary.dates[summary.size] = cursor.getLong(columnDate);
+                summary.size++;
+
+                Bucket bucket = summary.buckets.get(bucketId);
+                if (bucket == null) {
+                    bucket = new Bucket(bucketId);
+                    summary.buckets.put(bucketId, bucket);
+                    final String data = cursor.getString(columnData);
+                    if (data != null) {
+                        final File dir = new File(data).getParentFile();
+                        if (dir != null) {
+                            bucket.path = dir.getPath();
+                            bucket.pathModified = dir.lastModified();
+                        }
+                    }
+                }
+                bucket.name = cursor.getString(columnBucketName);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(Utils.TAG, e);
+            return false;
+        }
+    }
+
+    private static void grow(Summary summary, int capacity) {
+        if (capacity <= summary.ids.length)
+            return;
+        summary.ids = Arrays.copyOf(summary.ids, capacity);
+        summary.bucketIds = Arrays.copyOf(summary.bucketIds, capacity);
+        summary.dates = Arrays.copyOf(summary.dates, capacity);
+    }
+
+    // Rows of several volumes come sorted per volume only
+    private static void sort(Summary summary) {
+        boolean sorted = true;
+        for (int i = 1; i < summary.size && sorted; i++) {
+            sorted = summary.ids[i - 1] < summary.ids[i];
+        }
+        if (sorted)
+            return;
+        final Integer[] order = new Integer[summary.size];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(summary.ids[a], summary.ids[b]));
+        final long[] ids = new long[summary.size];
+        final long[] bucketIds = new long[summary.size];
+        final long[] dates = new long[summary.size];
+        for (int i = 0; i < order.length; i++) {
+            ids[i] = summary.ids[order[i]];
+            bucketIds[i] = summary.bucketIds[order[i]];
+            dates[i] = summary.dates[order[i]];
+        }
+        summary.ids = ids;
+        summary.bucketIds = bucketIds;
+        summary.dates = dates;
+    }
+
+    // Changed rows replace stored ones with the same id, both sorted by id
+    private static Summary merge(Summary summary, Summary updated) {
+        final Summary merged = new Summary();
+        merged.versions.putAll(updated.versions);
+        merged.generations.putAll(updated.generations);
+        grow(merged, summary.size + updated.size);
+        int i = 0;
+        int j = 0;
+        while (i < summary.size || j < updated.size) {
+            final boolean fromUpdated = i == summary.size || (j < updated.size && updated.ids[j] <= summary.ids[i]);
+            if (fromUpdated && i < summary.size && updated.ids[j] == summary.ids[i])
+                i++;
+            final Summary source = fromUpdated ? updated : summary;
+            final int index = fromUpdated ? j++ : i++;
+            merged.ids[merged.size] = source.ids[index];
+            merged.bucketIds[merged.size] = source.bucketIds[index];
+            merged.dates[merged.size] = source.dates[index];
+            merged.size++;
+        }
+        // Copies, counts of the stored summary stay as they are until the merged one replaces it
+        for (Bucket old : summary.buckets.values()) {
+            final Bucket bucket = new Bucket(old.id);
+            bucket.name = old.name;
+            bucket.path = old.path;
+            bucket.pathModified = old.pathModified;
+            merged.buckets.put(bucket.id, bucket);
+        }
+        for (Bucket bucket : updated.buckets.values()) {
+            final Bucket old = merged.buckets.get(bucket.id);
+            if (old != null && bucket.path == null) {
+                bucket.path = old.path;
+                bucket.pathModified = old.pathModified;
+            }
+            merged.buckets.put(bucket.id, bucket);
+        }
+        aggregate(merged);
+        return merged;
+    }
+
+    private static void aggregate(Summary summary) {
+        for (Bucket bucket : summary.buckets.values()) {
+            bucket.count = 0;
+            bucket.newest = 0;
+        }
+        for (int i = 0; i < summary.size; i++) {
+            final Bucket bucket = summary.buckets.get(summary.bucketIds[i]);
+            if (bucket == null)
+                continue;
+            bucket.count++;
+            bucket.newest = Math.max(bucket.newest, summary.dates[i]);
+        }
+        summary.buckets.values().removeIf(bucket -> bucket.count == 0);
+    }
+
+    private static List<Bucket> sorted(@Nullable Summary summary) {
+        if (summary == null)
+            return new ArrayList<>();
+        final List<Bucket> buckets = new ArrayList<>(summary.buckets.values());
+        buckets.sort((o1, o2) -> o1.name.compareToIgnoreCase(o2.name));
+        return buckets;
+    }
+
+    private void load() {
+        if (loaded)
+            return;
+        loaded = true;
+        if (!file.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION)
+                return;
+            final Summary[] stored = new Summary[summaries.length];
+            for (int kind = 0; kind < stored.length; kind++) {
+                if (!in.readBoolean())
+                    continue;
+                final Summary summary = new Summary();
+                final int volumeCount = in.readInt();
+                for (int i = 0; i < volumeCount; i++) {
+                    final String volume = in.readUTF();
+                    summary.versions.put(volume, in.readUTF());
+                    summary.generations.put(volume, in.readLong());
+                }
+                final int bucketCount = in.readInt();
+                for (int i = 0; i < bucketCount; i++) {
+                    final Bucket bucket = new Bucket(in.readLong());
+                    bucket.name = in.readUTF();
+                    bucket.path = in.readBoolean() ? in.readUTF() : null;
+                    bucket.pathModified = in.readLong();
+                    summary.buckets.put(bucket.id, bucket);
+                }
+                final int size = in.readInt();
+                grow(summary, size);
+                for (int i = 0; i < size; i++) {
+                    summary.ids[i] = in.readLong();
+                    summary.bucketIds[i] = in.readLong();
+                    summary.dates[i] = in.readLong();
+                }
+                summary.size = size;
+                aggregate(summary);
+                stored[kind] = summary;
+            }
+            System.arraycopy(stored, 0, summaries, 0, stored.length);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    private void write() {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            for (Summary summary : summaries) {
+                out.writeBoolean(summary != null);
+                if (summary == null)
+                    continue;
+                out.writeInt(summary.versions.size());
+                for (Map.Entry<String, String> entry : summary.versions.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                    out.writeLong(summary.generations.get(entry.getKey()));
+                }
+                out.writeInt(summary.buckets.size());
+                for (Bucket bucket : summary.buckets.values()) {
+                    out.writeLong(bucket.id);
+                    out.writeUTF(bucket.name);
+                    out.writeBoolean(bucket.path != null);
+                    if (bucket.path != null)
+                        out.writeUTF(bucket.path);
+                    out.writeLong(bucket.pathModified);
+                }
+                out.writeInt(summary.size);
+                for (int i = 0; i < summary.size; i++) {
+                    out.writeLong(summary.ids[i]);
+                    out.writeLong(summary.bucketIds[i]);
+                    out.writeLong(summary.dates[i]);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file))
+            tmp.delete();
+    }
+}
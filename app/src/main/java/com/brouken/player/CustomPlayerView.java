@@ -1,6 +1,8 @@
 package com.brouken.player;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.media.AudioManager;
@@ -11,6 +13,7 @@ import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
@@ -19,7 +22,6 @@ import androidx.core.view.GestureDetectorCompat;
 import androidx.media3.common.C;
 import androidx.media3.common.Player;
 import androidx.media3.common.text.CueGroup;
-import androidx.media3.exoplayer.SeekParameters;
 import androidx.media3.ui.AspectRatioFrameLayout;
 import androidx.media3.ui.PlayerView;
 import androidx.media3.ui.SubtitleView;
@@ -74,7 +76,15 @@ public class CustomPlayerView extends PlayerView implements GestureDetector.OnGe
     private BrightnessControl brightnessControl;
 
     private final TextView exoErrorMessage;
+    private final TextView statsOverlay;
+    private final StringBuilder statsText = new StringBuilder();
+    private PlaybackStats stats;
     private final View exoProgress;
+    private final ImageView scrubPreview;
+    private ThumbnailIndex thumbnails;
+    private Bitmap previewBitmap;
+    private Canvas previewCanvas;
+    private final Rect previewRect = new Rect();
     private final ComponentListener componentListener;
     public final CueModifier cueModifier;
 
@@ -96,7 +106,9 @@ public class CustomPlayerView extends PlayerView implements GestureDetector.OnGe
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
 
         exoErrorMessage = findViewById(R.id.exo_error_message);
+        statsOverlay = findViewById(R.id.stats_overlay);
         exoProgress = findViewById(R.id.exo_progress);
+        scrubPreview = findViewById(R.id.scrub_preview);
 
         mScaleDetector = new ScaleGestureDetector(context, this);
 
@@ -141,6 +153,10 @@ public class CustomPlayerView extends PlayerView implements GestureDetector.OnGe
                 if (handleTouch) {
                     if (gestureOrientation == Orientation.HORIZONTAL) {
                         setCustomErrorMessage(null);
+                        hideThumbnail();
+                        if (PlayerActivity.seekScheduler != null && seekChange != 0) {
+                            PlayerActivity.seekScheduler.finish(seekStart + seekChange);
+                        }
                     } else {
                         postDelayed(textClearRunnable, isHandledLongPress ? MESSAGE_TIMEOUT_LONG : MESSAGE_TIMEOUT_TOUCH);
                     }
@@ -252,21 +268,19 @@ public class CustomPlayerView extends PlayerView implements GestureDetector.OnGe
                 if (PlayerActivity.haveMedia) {
                     if (gestureScrollX > 0) {
                         if (seekStart + seekChange - SEEK_STEP  * distanceDiff >= 0) {
-                            PlayerActivity.player.setSeekParameters(SeekParameters.PREVIOUS_SYNC);
                             seekChange -= SEEK_STEP * distanceDiff;
                             position = seekStart + seekChange;
-                            PlayerActivity.player.seekTo(position);
+                            seekPreview(position);
                         }
                     } else {
-                        PlayerActivity.player.setSeekParameters(SeekParameters.NEXT_SYNC);
                         if (seekMax == C.TIME_UNSET) {
                             seekChange += SEEK_STEP * distanceDiff;
                             position = seekStart + seekChange;
-                            PlayerActivity.player.seekTo(position);
+                            seekPreview(position);
                         } else if (seekStart + seekChange + SEEK_STEP < seekMax) {
                             seekChange += SEEK_STEP  * distanceDiff;
                             position = seekStart + seekChange;
-                            PlayerActivity.player.seekTo(position);
+                            seekPreview(position);
                         }
                     }
                     String message = Utils.formatMilisSign(seekChange);
@@ -443,6 +457,83 @@ public class CustomPlayerView extends PlayerView implements GestureDetector.OnGe
         }
     }
 
+    private void seekPreview(long position) {
+        if (!showThumbnail(position)) {
+            PlayerActivity.seekScheduler.seek(position);
+        }
+    }
+
+    // Scrub previews of current media, null when there are none (yet)
+    void setThumbnails(@Nullable ThumbnailIndex thumbnails) {
+        this.thumbnails = thumbnails;
+        hideThumbnail();
+        if (thumbnails != null) {
+            previewBitmap = Bitmap.createBitmap(thumbnails.width, thumbnails.height, Bitmap.Config.RGB_565);
+            previewCanvas = new Canvas(previewBitmap);
+            previewRect.set(0, 0, thumbnails.width, thumbnails.height);
+            scrubPreview.setImageBitmap(previewBitmap);
+        } else {
+            scrubPreview.setImageDrawable(null);
+            previewBitmap = null;
+            previewCanvas = null;
+        }
+    }
+
+    // Shows thumbnail above the time bar, false when there's none available to show instead of seeking
+    boolean showThumbnail(long position) {
+        final Player player = getPlayer();
+        if (thumbnails == null || player == null || !thumbnails.draw(position, previewCanvas, previewRect))
+            return false;
+        scrubPreview.invalidate();
+
+        final long duration = player.getDuration();
+        if (duration > 0) {
+            final View parent = (View) scrubPreview.getParent();
+            final float center = exoProgress.getX() + exoProgress.getWidth() * Math.min(1f, (float) position / duration);
+            final float x = center - scrubPreview.getWidth() / 2f;
+            scrubPreview.setTranslationX(Math.max(0, Math.min(x, parent.getWidth() - scrubPreview.getWidth())));
+        }
+        scrubPreview.setVisibility(View.VISIBLE);
+        return true;
+    }
+
+    void hideThumbnail() {
+        scrubPreview.setVisibility(View.GONE);
+    }
+
+    private final Runnable statsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (stats == null)
+                return;
+            statsText.setLength(0);
+            stats.appendTo(statsText, "\n");
+            if (PlayerActivity.seekScheduler != null) {
+                PlayerActivity.seekScheduler.appendTo(statsText, "\n");
+            }
+            statsOverlay.setText(statsText);
+            postDelayed(this, 1000);
+        }
+    };
+
+    // "Stats for nerds", null hides the overlay
+    void setStats(@Nullable PlaybackStats stats) {
+        this.stats = stats;
+        removeCallbacks(statsUpdater);
+        if (stats != null) {
+            statsOverlay.setVisibility(View.VISIBLE);
+            statsUpdater.run();
+        } else {
+            statsOverlay.setVisibility(View.GONE);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(statsUpdater);
+    }
+
     public void setBrightnessControl(BrightnessControl brightnessControl) {
         this.brightnessControl = brightnessControl;
     }
@@ -0,0 +1,278 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Sorted listings of media directories, kept in memory and in cache dir so that next file and
+// subtitle lookups don't need to list the (possibly huge and slow) directory again.
+// A listing is valid as long as the directory mtime matches and no change was observed.
+class DirectoryIndex {
+
+    private static final String DIR_NAME = "index";
+    private static final int VERSION = 2;
+    private static final int MAX_MEMORY_ENTRIES = 8;
+
+    static final Comparator<String> NAME_ORDER = String.CASE_INSENSITIVE_ORDER;
+
+    private static DirectoryIndex instance;
+
+    private final Context context;
+    private final File dir;
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<>(MAX_MEMORY_ENTRIES + 1, 0.75f, true);
+
+    static final class Listing {
+        final String key;
+        final long lastModified;
+        // Sorted by NAME_ORDER
+        final DocumentEntry[] entries;
+        final int videoCount;
+        final int subtitleCount;
+        volatile boolean stale;
+        ContentObserver observer;
+
+        Listing(String key, long lastModified, DocumentEntry[] entries) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.entries = entries;
+            int videos = 0;
+            int subtitles = 0;
+            for (DocumentEntry entry : entries) {
+                if (entry.name.startsWith("."))
+                    continue;
+                if (entry.isVideo())
+                    videos++;
+                else if (entry.isSubtitle())
+                    subtitles++;
+            }
+            videoCount = videos;
+            subtitleCount = subtitles;
+        }
+
+        int indexOf(String name) {
+            int index = lowerBound(name);
+            while (index < entries.length && NAME_ORDER.compare(entries[index].name, name) == 0) {
+                if (entries[index].name.equals(name))
+                    return index;
+                index++;
+            }
+            return -1;
+        }
+
+        int lowerBound(String name) {
+            int low = 0;
+            int high = entries.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (NAME_ORDER.compare(entries[mid].name, name) < 0)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        @Nullable
+        DocumentEntry findNext(String name) {
+            final int index = indexOf(name);
+            if (index < 0)
+                return null;
+            for (int i = index + 1; i < entries.length; i++) {
+                if (entries[i].isVideo())
+                    return entries[i];
+            }
+            return null;
+        }
+
+        @Nullable
+        DocumentEntry findSubtitle(String videoBaseName) {
+            if (videoCount == 1 && subtitleCount == 1) {
+                for (DocumentEntry entry : entries) {
+                    if (!entry.name.startsWith(".") && entry.isSubtitle())
+                        return entry;
+                }
+            }
+            if (subtitleCount == 0)
+                return null;
+            final String prefix = videoBaseName + '.';
+            for (int i = lowerBound(prefix); i < entries.length; i++) {
+                final DocumentEntry entry = entries[i];
+                if (!entry.name.regionMatches(true, 0, prefix, 0, prefix.length()))
+                    break;
+                if (entry.name.startsWith(prefix) && entry.isSubtitle())
+                    return entry;
+            }
+            return null;
+        }
+    }
+
+    static synchronized DirectoryIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new DirectoryIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private DirectoryIndex(Context context) {
+        this.context = context;
+        this.dir = new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    @Nullable
+    synchronized Listing get(Uri directoryUri) {
+        final String key = directoryUri.toString();
+        final DocumentEntry directory = DocumentLister.query(context, directoryUri);
+        if (directory == null)
+            return null;
+        final long lastModified = directory.lastModified;
+
+        Listing listing = listings.get(key);
+        if (listing != null && isValid(listing, lastModified))
+            return listing;
+
+        if (listing == null) {
+            listing = read(key);
+            // Without mtime only an observed listing from this process can be trusted
+            if (listing != null && (lastModified == 0 || !isValid(listing, lastModified)))
+                listing = null;
+        } else {
+            listing = null;
+        }
+
+        if (listing == null) {
+            final List<DocumentEntry> list = DocumentLister.list(context, directoryUri);
+            if (list == null)
+                return null;
+            final DocumentEntry[] entries = list.toArray(new DocumentEntry[0]);
+            Arrays.sort(entries, (a, b) -> NAME_ORDER.compare(a.name, b.name));
+            listing = new Listing(key, lastModified, entries);
+            write(listing);
+        }
+
+        observe(directoryUri, listing);
+        final Listing old = listings.put(key, listing);
+        if (old != null && old != listing)
+            unobserve(old);
+        trim();
+        return listing;
+    }
+
+    private static boolean isValid(Listing listing, long lastModified) {
+        return !listing.stale && listing.lastModified == lastModified;
+    }
+
+    private void observe(Uri uri, Listing listing) {
+        if (listing.observer != null || !ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+            return;
+        try {
+            final Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(uri, DocumentsContract.getDocumentId(uri));
+            listing.observer = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    listing.stale = true;
+                    getFile(listing.key).delete();
+                }
+            };
+            context.getContentResolver().registerContentObserver(childrenUri, true, listing.observer);
+        } catch (Exception e) {
+            listing.observer = null;
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    private void unobserve(Listing listing) {
+        if (listing.observer != null) {
+            context.getContentResolver().unregisterContentObserver(listing.observer);
+            listing.observer = null;
+        }
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Listing>> iterator = listings.entrySet().iterator();
+        while (listings.size() > MAX_MEMORY_ENTRIES && iterator.hasNext()) {
+            unobserve(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(dir, Long.toHexString(Utils.hash(key)) + ".idx");
+    }
+
+    @Nullable
+    private Listing read(String key) {
+        final File file = getFile(key);
+        if (!file.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION || !key.equals(in.readUTF()))
+                return null;
+            final Uri parentUri = Uri.parse(key);
+            final long lastModified = in.readLong();
+            final DocumentEntry[] entries = new DocumentEntry[in.readInt()];
+            for (int i = 0; i < entries.length; i++) {
+                final String name = in.readUTF();
+                final long size = in.readLong();
+                final String mime = in.readBoolean() ? in.readUTF() : null;
+                final int flags = in.readInt();
+                final long modified = in.readLong();
+                final Uri uri = Uri.parse(in.readUTF());
+                entries[i] = new DocumentEntry(uri, parentUri, name, mime, size, flags, modified);
+            }
+            return new Listing(key, lastModified, entries);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void write(Listing listing) {
+        if (!dir.exists() && !dir.mkdirs())
+            return;
+        final File file = getFile(listing.key);
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeUTF(listing.key);
+            out.writeLong(listing.lastModified);
+            out.writeInt(listing.entries.length);
+            for (DocumentEntry entry : listing.entries) {
+                out.writeUTF(entry.name);
+                out.writeLong(entry.size);
+                out.writeBoolean(entry.mime != null);
+                if (entry.mime != null)
+                    out.writeUTF(entry.mime);
+                out.writeInt(entry.flags);
+                out.writeLong(entry.lastModified);
+                out.writeUTF(entry.uri.toString());
+            }
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file))
+            tmp.delete();
+    }
+}
@@ -0,0 +1,42 @@
+package com.brouken.player;
+
+import android.net.Uri;
+import android.provider.DocumentsContract;
+
+// Immutable snapshot of one row of a directory listing
+final class DocumentEntry {
+
+    final Uri uri;
+    final Uri parentUri;
+    final String name;
+    final String mime;
+    final long size;
+    final int flags;
+    final long lastModified;
+
+    DocumentEntry(Uri uri, Uri parentUri, String name, String mime, long size, int flags, long lastModified) {
+        this.uri = uri;
+        this.parentUri = parentUri;
+        this.name = name;
+        this.mime = mime;
+        this.size = size;
+        this.flags = flags;
+        this.lastModified = lastModified;
+    }
+
+    boolean isDirectory() {
+        return DocumentsContract.Document.MIME_TYPE_DIR.equals(mime);
+    }
+
+    boolean isVideo() {
+        return !isDirectory() && mime != null && mime.startsWith("video/");
+    }
+
+    boolean isSubtitle() {
+        if (isDirectory())
+            return false;
+        final String lowerName = name.toLowerCase();
+        return lowerName.endsWith(".srt") || lowerName.endsWith(".ssa") || lowerName.endsWith(".ass")
+                || lowerName.endsWith(".vtt") || lowerName.endsWith(".ttml");
+    }
+}
@@ -0,0 +1,116 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Directory listing with a single provider query per directory (instead of one query per property
+// and child with DocumentFile). Works for tree document uris and file uris.
+class DocumentLister {
+
+    private static final String[] PROJECTION = new String[] {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_FLAGS,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    // Number of provider queries, only for debug logging of lookups
+    private static final AtomicInteger queries = new AtomicInteger();
+
+    static int getQueryCount() {
+        return queries.get();
+    }
+
+    @Nullable
+    static List<DocumentEntry> list(Context context, Uri directoryUri) {
+        if (ContentResolver.SCHEME_FILE.equals(directoryUri.getScheme())) {
+            final File[] files = new File(directoryUri.getPath()).listFiles();
+            if (files == null)
+                return null;
+            final List<DocumentEntry> entries = new ArrayList<>(files.length);
+            for (File file : files) {
+                entries.add(fromFile(file, directoryUri));
+            }
+            return entries;
+        }
+
+        final Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(directoryUri, DocumentsContract.getDocumentId(directoryUri));
+        queries.incrementAndGet();
+        try (Cursor cursor = context.getContentResolver().query(childrenUri, PROJECTION, null, null, null)) {
+            if (cursor == null)
+                return null;
+            final List<DocumentEntry> entries = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                final Uri uri = DocumentsContract.buildDocumentUriUsingTree(directoryUri, cursor.getString(0));
+                final DocumentEntry entry = fromCursor(cursor, uri, directoryUri);
+                if (entry != null)
+                    entries.add(entry);
+            }
+            return entries;
+        } catch (Exception e) {
+            Log.w(Utils.TAG, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    static DocumentEntry query(Context context, Uri documentUri) {
+        if (ContentResolver.SCHEME_FILE.equals(documentUri.getScheme())) {
+            final File file = new File(documentUri.getPath());
+            if (!file.exists())
+                return null;
+            final File parent = file.getParentFile();
+            return fromFile(file, parent != null ? Uri.fromFile(parent) : null);
+        }
+
+        queries.incrementAndGet();
+        try (Cursor cursor = context.getContentResolver().query(documentUri, PROJECTION, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst())
+                return fromCursor(cursor, documentUri, null);
+        } catch (Exception e) {
+            Log.w(Utils.TAG, e);
+        }
+        return null;
+    }
+
+    @Nullable
+    private static DocumentEntry fromCursor(Cursor cursor, Uri uri, Uri parentUri) {
+        final String name = cursor.getString(1);
+        if (name == null)
+            return null;
+        final long size = cursor.isNull(3) ? -1 : cursor.getLong(3);
+        final long lastModified = cursor.isNull(5) ? 0 : cursor.getLong(5);
+        return new DocumentEntry(uri, parentUri, name, cursor.getString(2), size, cursor.getInt(4), lastModified);
+    }
+
+    private static DocumentEntry fromFile(File file, Uri parentUri) {
+        return new DocumentEntry(Uri.fromFile(file), parentUri, file.getName(), getFileMime(file), file.length(), 0, file.lastModified());
+    }
+
+    private static String getFileMime(File file) {
+        if (file.isDirectory())
+            return DocumentsContract.Document.MIME_TYPE_DIR;
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            final String mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(name.substring(dot + 1).toLowerCase());
+            if (mime != null)
+                return mime;
+        }
+        return "application/octet-stream";
+    }
+}
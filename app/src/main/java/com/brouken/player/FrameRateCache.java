@@ -0,0 +1,56 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+// Detected video frame rate per media so display mode can be switched without probing the file again.
+// Replaced local file is measured again (see Utils.getMediaKey()).
+class FrameRateCache {
+
+    private static final String NAME = "frame_rates";
+    // Rates are cheap to measure again, the whole cache is dropped once it grows over the limit
+    private static final int MAX_ENTRIES = 1000;
+
+    private static FrameRateCache instance;
+
+    private final Context context;
+    private final SharedPreferences rates;
+
+    static synchronized FrameRateCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new FrameRateCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FrameRateCache(Context context) {
+        this.context = context;
+        rates = context.getSharedPreferences(NAME, Context.MODE_PRIVATE);
+    }
+
+    // May query the provider, not to be called on main thread
+    String getKey(Uri uri) {
+        return Utils.getMediaKey(context, uri);
+    }
+
+    float get(String key) {
+        return rates.getFloat(key, 0);
+    }
+
+    // First detected rate is kept
+    synchronized void put(String key, float frameRate) {
+        if (frameRate <= 0 || rates.contains(key))
+            return;
+        final SharedPreferences.Editor editor = rates.edit();
+        if (rates.getAll().size() >= MAX_ENTRIES) {
+            editor.clear();
+        }
+        editor.putFloat(key, frameRate).apply();
+    }
+
+    // From main thread, key is resolved in background
+    void putAsync(Uri uri, float frameRate) {
+        TaskScheduler.submit(this, TaskScheduler.PRIORITY_INDEX, "frameRateCache", () -> put(getKey(uri), frameRate));
+    }
+}
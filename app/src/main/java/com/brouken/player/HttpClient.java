@@ -0,0 +1,63 @@
+package com.brouken.player;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolException;
+
+import okhttp3.Cache;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// App-wide HTTP stack: one dispatcher and connection pool shared by subtitle requests and playback
+class HttpClient {
+
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
+
+    private static OkHttpClient client;
+    private static OkHttpClient mediaClient;
+
+    // For small requests (subtitles), responses are cached on disk
+    static synchronized OkHttpClient get(Context context) {
+        if (client == null) {
+            client = new OkHttpClient.Builder()
+                    .cache(new Cache(new File(context.getApplicationContext().getCacheDir(), "http"), CACHE_SIZE))
+                    .addInterceptor(new StaleConnectionInterceptor())
+                    .build();
+        }
+        return client;
+    }
+
+    // For media playback, same pool and dispatcher but without the disk cache
+    static synchronized OkHttpClient getMediaClient(Context context) {
+        if (mediaClient == null) {
+            mediaClient = get(context).newBuilder()
+                    .cache(null)
+                    .build();
+        }
+        return mediaClient;
+    }
+
+    // Some servers (Total Commander LAN plugin) send more body than announced by Content-Length,
+    // the leftover is then read as the status line of the next response on the reused connection:
+    // java.net.ProtocolException: Unexpected status line: 1
+    // Such connection is not reused after the failure so retrying once gets a fresh one.
+    private static class StaleConnectionInterceptor implements Interceptor {
+        @NonNull
+        @Override
+        public Response intercept(@NonNull Chain chain) throws IOException {
+            final Request request = chain.request();
+            try {
+                return chain.proceed(request);
+            } catch (ProtocolException e) {
+                Utils.log("Retrying " + request.url() + " after " + e);
+                return chain.proceed(request);
+            }
+        }
+    }
+}
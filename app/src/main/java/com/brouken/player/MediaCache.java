@@ -0,0 +1,180 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.text.format.Formatter;
+
+import androidx.annotation.NonNull;
+import androidx.media3.database.DatabaseProvider;
+import androidx.media3.database.StandaloneDatabaseProvider;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.datasource.TransferListener;
+import androidx.media3.datasource.cache.CacheDataSource;
+import androidx.media3.datasource.cache.LeastRecentlyUsedCacheEvictor;
+import androidx.media3.datasource.cache.SimpleCache;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Optional on-disk cache in front of HTTP playback, backward seeks and reopened files are read locally.
+// Content is keyed by url without password plus Basic auth user. Least recently used spans are evicted
+// once over budget. Bytes read from cache and from network are counted for statistics in settings.
+class MediaCache implements CacheDataSource.EventListener, TransferListener {
+
+    private static final String DIR_NAME = "media";
+    private static final String STATS_NAME = "media_cache";
+    private static final String KEY_BYTES_CACHE = "bytesCache";
+    private static final String KEY_BYTES_NETWORK = "bytesNetwork";
+
+    private static MediaCache instance;
+
+    private final Context context;
+    private final File dir;
+    private final SharedPreferences stats;
+    private final AtomicLong bytesCache = new AtomicLong();
+    private final AtomicLong bytesNetwork = new AtomicLong();
+    private DatabaseProvider databaseProvider;
+    private SimpleCache cache;
+    private long maxBytes;
+
+    static synchronized MediaCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MediaCache(Context context) {
+        this.context = context;
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        stats = context.getSharedPreferences(STATS_NAME, Context.MODE_PRIVATE);
+        bytesCache.set(stats.getLong(KEY_BYTES_CACHE, 0));
+        bytesNetwork.set(stats.getLong(KEY_BYTES_NETWORK, 0));
+    }
+
+    // Data source factory for network playback, maxBytes 0 disables the cache and drops its content.
+    // Budget change reopens the cache so it must not be in use (called when building new player).
+    synchronized DataSource.Factory wrap(HttpDataSource.Factory upstream, long maxBytes) {
+        if (cache != null && maxBytes != this.maxBytes) {
+            cache.release();
+            cache = null;
+        }
+        if (maxBytes <= 0) {
+            if (dir.exists()) {
+                SimpleCache.delete(dir, getDatabaseProvider());
+                resetStats();
+            }
+            return upstream;
+        }
+        if (cache == null) {
+            cache = new SimpleCache(dir, new LeastRecentlyUsedCacheEvictor(maxBytes), getDatabaseProvider());
+            this.maxBytes = maxBytes;
+        }
+        return new CacheDataSource.Factory()
+                .setCache(cache)
+                .setUpstreamDataSourceFactory(() -> {
+                    final DataSource dataSource = upstream.createDataSource();
+                    dataSource.addTransferListener(this);
+                    return dataSource;
+                })
+                .setCacheKeyFactory(MediaCache::getKey)
+                .setFlags(CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR)
+                .setEventListener(this);
+    }
+
+    private DatabaseProvider getDatabaseProvider() {
+        if (databaseProvider == null) {
+            databaseProvider = new StandaloneDatabaseProvider(context);
+        }
+        return databaseProvider;
+    }
+
+    static String getKey(DataSpec dataSpec) {
+        if (dataSpec.key != null)
+            return dataSpec.key;
+        return getKey(dataSpec.uri);
+    }
+
+    // Uri without password, user name is kept so that different accounts don't share entries
+    static String getKey(Uri uri) {
+        final String userInfo = uri.getUserInfo();
+        if (userInfo == null)
+            return uri.toString();
+        final int colon = userInfo.indexOf(':');
+        final String user = colon == -1 ? userInfo : userInfo.substring(0, colon);
+        final String authority = uri.getEncodedAuthority();
+        final Uri anonymous = uri.buildUpon()
+                .encodedAuthority(authority.substring(authority.lastIndexOf('@') + 1))
+                .build();
+        return user + "@" + anonymous;
+    }
+
+    String getSummary() {
+        final long cached = bytesCache.get();
+        final long total = cached + bytesNetwork.get();
+        final int ratio = total > 0 ? (int) (cached * 100 / total) : 0;
+        return context.getString(R.string.pref_media_cache_stats,
+                Formatter.formatShortFileSize(context, getSize(dir)),
+                Formatter.formatShortFileSize(context, cached),
+                ratio);
+    }
+
+    private void resetStats() {
+        bytesCache.set(0);
+        bytesNetwork.set(0);
+        saveStats();
+    }
+
+    private void saveStats() {
+        stats.edit()
+                .putLong(KEY_BYTES_CACHE, bytesCache.get())
+                .putLong(KEY_BYTES_NETWORK, bytesNetwork.get())
+                .apply();
+    }
+
+    private static long getSize(File file) {
+        if (!file.isDirectory())
+            return file.length();
+        long size = 0;
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                size += getSize(child);
+        }
+        return size;
+    }
+
+    @Override
+    public void onCachedBytesRead(long cacheSizeBytes, long cachedBytesRead) {
+        bytesCache.addAndGet(cachedBytesRead);
+        saveStats();
+    }
+
+    @Override
+    public void onCacheIgnored(int reason) {
+        Utils.log("Media cache ignored: " + reason);
+    }
+
+    @Override
+    public void onTransferInitializing(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork) {
+    }
+
+    @Override
+    public void onTransferStart(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork) {
+    }
+
+    @Override
+    public void onBytesTransferred(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        if (isNetwork) {
+            bytesNetwork.addAndGet(bytesTransferred);
+        }
+    }
+
+    @Override
+    public void onTransferEnd(@NonNull DataSource source, @NonNull DataSpec dataSpec, boolean isNetwork) {
+        saveStats();
+    }
+}
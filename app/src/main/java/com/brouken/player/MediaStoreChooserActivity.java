@@ -3,6 +3,7 @@ package com.brouken.player;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -11,17 +12,19 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class MediaStoreChooserActivity extends Activity {
 
@@ -30,6 +33,8 @@ public class MediaStoreChooserActivity extends Activity {
     public static final String TITLE = "TITLE";
 
     final int REQUEST_PERMISSION_STORAGE = 0;
+    // Rows handed over to the list at once
+    static final int PAGE_SIZE = 200;
 
     Integer bucketId;
     boolean subtitles;
@@ -76,7 +81,7 @@ public class MediaStoreChooserActivity extends Activity {
     @RequiresApi(api = Build.VERSION_CODES.R)
     private void start() {
         if (bucketId == null) {
-            Utils.scanMediaStorage(this);
+            BucketIndex.getInstance(this).scanAsync();
             showBuckets();
         } else {
             showFiles(bucketId);
@@ -97,71 +102,137 @@ public class MediaStoreChooserActivity extends Activity {
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.Q)
-    HashMap<Integer, String> query(String projectionId, String projectionName, String selection) {
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        TaskScheduler.cancel(this);
+    }
+
+    interface OnQueryComplete {
+        // Error is null when the query went through (even with no rows)
+        void onComplete(int count, @Nullable Exception error);
+    }
+
+    // Rows come sorted by name from the provider and are shown in pages while the cursor is still being read.
+    // Plain provider collation is used, COLLATE in the sort clause isn't accepted by MediaProvider everywhere.
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    void query(String projectionId, String projectionName, String selection, MediaStoreAdapter adapter, OnQueryComplete onComplete) {
         Uri collection = MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL);
         if (subtitles) {
             collection = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL);
         }
-        HashMap<Integer, String> hashMap = new HashMap<>();
-        try (Cursor cursor = getContentResolver().query(collection, new String[] { projectionId, projectionName }, selection, null, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int columnId = cursor.getColumnIndex(projectionId);
-                int columnName = cursor.getColumnIndex(projectionName);
+        final Uri uri = collection;
+        final String[] projection = new String[] { projectionId, projectionName };
+        final Bundle queryArgs = new Bundle();
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, projectionName + ", " + projectionId);
 
-                do {
-                    int id = cursor.getInt(columnId);
-                    String name = cursor.getString(columnName);
-                    if (name == null) {
+        TaskScheduler.submit(this, TaskScheduler.PRIORITY_PLAYBACK, "mediaStoreQuery", () -> {
+            int total = 0;
+            try (Cursor cursor = getContentResolver().query(uri, projection, queryArgs, null)) {
+                if (cursor == null)
+                    throw new IllegalStateException("No cursor for " + uri);
+                final int columnId = cursor.getColumnIndex(projectionId);
+                final int columnName = cursor.getColumnIndex(projectionName);
+                long[] ids = new long[PAGE_SIZE];
+                String[] names = new String[PAGE_SIZE];
+                int size = 0;
+                while (cursor.moveToNext()) {
+                    final String name = cursor.getString(columnName);
+                    if (name == null)
                         continue;
+                    ids[size] = cursor.getLong(columnId);
+                    names[size] = name;
+                    total++;
+                    if (++size == PAGE_SIZE) {
+                        if (Thread.currentThread().isInterrupted())
+                            return;
+                        publish(adapter, ids, names, size);
+                        ids = new long[PAGE_SIZE];
+                        names = new String[PAGE_SIZE];
+                        size = 0;
                     }
-                    if (!hashMap.containsKey(id)) {
-                        hashMap.put(id, name);
-                    }
-                } while (cursor.moveToNext());
+                }
+                publish(adapter, ids, names, size);
+            } catch (Exception x) {
+                x.printStackTrace();
+                runOnUiThread(() -> onComplete.onComplete(0, x));
+                return;
             }
-        } catch (Exception x) {
-            x.printStackTrace();
-        }
-        // Sort map by value
-        List<Map.Entry<Integer, String>> list = new LinkedList<>(hashMap.entrySet());
-        Collections.sort(list, (o1, o2) -> o1.getValue().compareToIgnoreCase(o2.getValue()));
-        HashMap<Integer, String> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<Integer, String> map : list) {
-            sortedMap.put(map.getKey(), map.getValue());
+            final int count = total;
+            runOnUiThread(() -> onComplete.onComplete(count, null));
+        });
+    }
+
+    private void publish(MediaStoreAdapter adapter, long[] ids, String[] names, int size) {
+        if (size > 0) {
+            runOnUiThread(() -> adapter.append(ids, names, size));
         }
-        return sortedMap;
+    }
+
+    AlertDialog.Builder createListDialog(MediaStoreAdapter adapter) {
+        AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
+        RecyclerView recyclerView = new RecyclerView(alertDialogBuilder.getContext());
+        recyclerView.setLayoutManager(new LinearLayoutManager(alertDialogBuilder.getContext()));
+        recyclerView.setAdapter(adapter);
+        alertDialogBuilder.setView(recyclerView);
+        alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
+        return alertDialogBuilder;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     void showBuckets() {
-        String selection = "";
-        if (subtitles) {
-            selection += MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
-        }
-
-        HashMap<Integer, String> buckets = query(MediaStore.MediaColumns.BUCKET_ID, MediaStore.MediaColumns.BUCKET_DISPLAY_NAME, selection);
+        MediaStoreAdapter adapter = new MediaStoreAdapter((id, name) -> {
+            Intent intent = new Intent(MediaStoreChooserActivity.this, MediaStoreChooserActivity.class);
+            intent.putExtra(SUBTITLES, subtitles);
+            intent.putExtra(BUCKET_ID, (int) id);
+            intent.putExtra(TITLE, name);
+            startActivityForResult(intent, 0);
+        });
 
-        Integer[] bucketIds = buckets.keySet().toArray(new Integer[0]);
-        String[] bucketDisplayNames = buckets.values().toArray(new String[0]);
+        AlertDialog.Builder alertDialogBuilder = createListDialog(adapter);
+        alertDialogBuilder.setTitle(getString(R.string.choose_file));
+        AlertDialog dialog = alertDialogBuilder.show();
 
-        AlertDialog.Builder alertDialogBuilder;
-        if (buckets.size() == 0) {
-            alertDialogBuilder = new AlertDialog.Builder(this);
-            alertDialogBuilder.setMessage(R.string.mediastore_empty);
-        } else {
-            alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
-            alertDialogBuilder.setTitle(getString(R.string.choose_file));
-            alertDialogBuilder.setItems(bucketDisplayNames, (dialogInterface, i) -> {
-                Intent intent = new Intent(MediaStoreChooserActivity.this, MediaStoreChooserActivity.class);
-                intent.putExtra(SUBTITLES, subtitles);
-                intent.putExtra(BUCKET_ID, bucketIds[i]);
-                intent.putExtra(TITLE, bucketDisplayNames[i]);
-                startActivityForResult(intent, 0);
+        // Stored summary first, then brought up to date with changes since the last time
+        final int kind = subtitles ? BucketIndex.KIND_SUBTITLE : BucketIndex.KIND_VIDEO;
+        final BucketIndex bucketIndex = BucketIndex.getInstance(this);
+        TaskScheduler.submit(this, TaskScheduler.PRIORITY_PLAYBACK, "buckets", () -> {
+            final List<BucketIndex.Bucket> stored = bucketIndex.getBuckets(kind);
+            if (!stored.isEmpty()) {
+                runOnUiThread(() -> setBuckets(adapter, stored));
+            }
+            final List<BucketIndex.Bucket> buckets = bucketIndex.sync(kind);
+            if (Thread.currentThread().isInterrupted())
+                return;
+            runOnUiThread(() -> {
+                setBuckets(adapter, buckets);
+                if (buckets.isEmpty()) {
+                    showMessage(dialog, getString(R.string.mediastore_empty));
+                }
             });
+        });
+    }
+
+    // Replaces the list dialog, closing the message closes the chooser
+    private void showMessage(AlertDialog dialog, String message) {
+        if (isFinishing())
+            return;
+        dialog.dismiss();
+        new AlertDialog.Builder(this)
+                .setMessage(message)
+                .setOnCancelListener(dialogInterface -> finish())
+                .show();
+    }
+
+    private void setBuckets(MediaStoreAdapter adapter, List<BucketIndex.Bucket> buckets) {
+        final long[] ids = new long[buckets.size()];
+        final String[] names = new String[buckets.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = buckets.get(i).id;
+            names[i] = buckets.get(i).name;
         }
-        alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
-        alertDialogBuilder.show();
+        adapter.set(ids, names, ids.length);
     }
 
     @RequiresApi(api = Build.VERSION_CODES.R)
@@ -172,27 +243,99 @@ public class MediaStoreChooserActivity extends Activity {
             selection += " AND " + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
         }
 
-        HashMap<Integer, String> files = query(MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, selection);
-
-        Integer[] ids = files.keySet().toArray(new Integer[0]);
-        String[] displayNames = files.values().toArray(new String[0]);
-
-        AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
-        if (title != null) {
-            alertDialogBuilder.setTitle(title);
-        }
-        alertDialogBuilder.setItems(displayNames, (dialogInterface, i) -> {
+        MediaStoreAdapter adapter = new MediaStoreAdapter((id, name) -> {
             Uri contentUri;
             if (subtitles) {
-                contentUri = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL, ids[i]);
+                contentUri = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL, id);
             } else {
-                contentUri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, ids[i]);
+                contentUri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, id);
             }
             Intent data = new Intent("RESULT", contentUri);
             setResult(RESULT_OK, data);
             finish();
         });
-        alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
-        alertDialogBuilder.show();
+
+        AlertDialog.Builder alertDialogBuilder = createListDialog(adapter);
+        if (title != null) {
+            alertDialogBuilder.setTitle(title);
+        }
+        AlertDialog dialog = alertDialogBuilder.show();
+
+        query(MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, selection, adapter, (count, error) -> {
+            if (error != null) {
+                showMessage(dialog, error.getLocalizedMessage() != null ? error.getLocalizedMessage() : error.toString());
+            } else if (count == 0) {
+                showMessage(dialog, getString(R.string.mediastore_empty));
+            }
+        });
+    }
+
+    interface OnItemClickListener {
+        void onItemClick(long id, String name);
+    }
+
+    // Rows kept in primitive arrays growing as pages arrive
+    static class MediaStoreAdapter extends RecyclerView.Adapter<MediaStoreAdapter.ViewHolder> {
+
+        private final OnItemClickListener listener;
+        private long[] ids = new long[PAGE_SIZE];
+        private String[] names = new String[PAGE_SIZE];
+        private int size;
+
+        MediaStoreAdapter(OnItemClickListener listener) {
+            this.listener = listener;
+        }
+
+        void set(long[] ids, String[] names, int count) {
+            this.ids = ids;
+            this.names = names;
+            size = count;
+            notifyDataSetChanged();
+        }
+
+        void append(long[] pageIds, String[] pageNames, int count) {
+            if (size + count > ids.length) {
+                final int capacity = Math.max(ids.length * 2, size + count);
+                ids = Arrays.copyOf(ids, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            System.arraycopy(pageIds, 0, ids, size, count);
+            System.arraycopy(pageNames, 0, names, size, count);
+            final int start = size;
+            size += count;
+            notifyItemRangeInserted(start, count);
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext()).inflate(android.R.layout.select_dialog_item, parent, false);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            holder.textView.setText(names[position]);
+        }
+
+        @Override
+        public int getItemCount() {
+            return size;
+        }
+
+        class ViewHolder extends RecyclerView.ViewHolder {
+            final TextView textView;
+
+            ViewHolder(@NonNull View itemView) {
+                super(itemView);
+                textView = itemView.findViewById(android.R.id.text1);
+                itemView.setOnClickListener(view -> {
+                    final int position = getBindingAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        listener.onItemClick(ids[position], names[position]);
+                    }
+                });
+            }
+        }
     }
 }
@@ -0,0 +1,467 @@
+package com.brouken.player;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.datasource.BaseDataSource;
+import androidx.media3.datasource.DataSpec;
+import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.datasource.HttpUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+// Reads a file over several concurrent Range requests, for simple LAN servers that cap throughput
+// per connection below the bitrate of high bitrate remuxes. Chunks are fetched in order ahead of the
+// reading position, at most MAX_AHEAD of them are kept in memory. Number of connections grows while
+// the reader waits for data and more connections actually bring more throughput.
+// Servers without range support are read as a single stream.
+class ParallelHttpDataSource extends BaseDataSource implements HttpDataSource {
+
+    private static final int MAX_CONNECTIONS = 4;
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_AHEAD = MAX_CONNECTIONS * 2;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_AHEAD, MAX_AHEAD,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> new Thread(r, "ParallelHttpDataSource"));
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static class Factory implements HttpDataSource.Factory {
+
+        private final OkHttpClient client;
+        private final RequestProperties defaultRequestProperties = new RequestProperties();
+
+        Factory(OkHttpClient client) {
+            this.client = client;
+        }
+
+        @NonNull
+        @Override
+        public HttpDataSource createDataSource() {
+            return new ParallelHttpDataSource(client, defaultRequestProperties);
+        }
+
+        @NonNull
+        @Override
+        public Factory setDefaultRequestProperties(@NonNull Map<String, String> defaultRequestProperties) {
+            this.defaultRequestProperties.clearAndSet(defaultRequestProperties);
+            return this;
+        }
+    }
+
+    private static class Chunk {
+        final long position;
+        final int length;
+        Future<byte[]> future;
+        volatile Call call;
+        volatile boolean cancelled;
+        volatile long timeMs;
+        // Response opened elsewhere (first chunk), taken by the task reading it or closed on cancel
+        final AtomicReference<Response> response = new AtomicReference<>();
+
+        Chunk(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+
+        void cancel() {
+            cancelled = true;
+            final Call call = this.call;
+            if (call != null) {
+                call.cancel();
+            }
+            future.cancel(true);
+            // Task cancelled before it started would never close it
+            final Response response = this.response.getAndSet(null);
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    private final OkHttpClient client;
+    private final RequestProperties defaultRequestProperties;
+    private final RequestProperties requestProperties = new RequestProperties();
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+
+    @Nullable
+    private DataSpec dataSpec;
+    @Nullable
+    private Response response;
+    @Nullable
+    private InputStream stream;
+    private boolean opened;
+    private int responseCode = -1;
+    private Map<String, List<String>> responseHeaders = Collections.emptyMap();
+    private long end;
+    private long nextPosition;
+    private long bytesRemaining;
+    @Nullable
+    private byte[] current;
+    private int currentOffset;
+
+    // Kept between opens (seeks) of the same media
+    private int connections = 2;
+    private int maxUsefulConnections = MAX_CONNECTIONS;
+    private boolean increased;
+    private long lastThroughput;
+    private int windowChunks;
+    private int windowStalls;
+    private long windowBytes;
+    private long windowTimeMs;
+
+    private ParallelHttpDataSource(OkHttpClient client, RequestProperties defaultRequestProperties) {
+        super(true);
+        this.client = client;
+        this.defaultRequestProperties = defaultRequestProperties;
+    }
+
+    @Override
+    public long open(@NonNull DataSpec dataSpec) throws HttpDataSourceException {
+        this.dataSpec = dataSpec;
+        transferInitializing(dataSpec);
+
+        final long position = dataSpec.position;
+        final long length = dataSpec.length != C.LENGTH_UNSET ? Math.min(CHUNK_SIZE, dataSpec.length) : CHUNK_SIZE;
+        Call call = client.newCall(buildRequest(dataSpec, position, length));
+        Response response = execute(call, HttpDataSourceException.TYPE_OPEN);
+        final String contentRange = response.header("Content-Range");
+        final long documentSize = HttpUtil.getDocumentSize(contentRange);
+
+        if (response.code() == 416 && position == documentSize) {
+            // Opened at the very end
+            response.close();
+            bytesRemaining = 0;
+            opened = true;
+            transferStarted(dataSpec);
+            return 0;
+        }
+        if (response.code() == 206 && documentSize == C.LENGTH_UNSET) {
+            // Size unknown, no way to split into chunks
+            response.close();
+            call = client.newCall(buildRequest(dataSpec, position, dataSpec.length));
+            response = execute(call, HttpDataSourceException.TYPE_OPEN);
+        }
+        responseCode = response.code();
+        responseHeaders = response.headers().toMultimap();
+        if (!response.isSuccessful()) {
+            final String message = response.message();
+            response.close();
+            throw new InvalidResponseCodeException(responseCode, message, null, responseHeaders, dataSpec, new byte[0]);
+        }
+        if (response.code() == 206 && documentSize != C.LENGTH_UNSET) {
+            end = dataSpec.length != C.LENGTH_UNSET ? position + dataSpec.length : documentSize;
+            bytesRemaining = end - position;
+            final Chunk first = new Chunk(position, (int) Math.min(length, bytesRemaining));
+            first.call = call;
+            first.response.set(response);
+            first.future = executor.submit(() -> {
+                final long start = SystemClock.elapsedRealtime();
+                final Response firstResponse = first.response.getAndSet(null);
+                if (firstResponse == null) {
+                    throw new InterruptedIOException();
+                }
+                try (Response ignored = firstResponse) {
+                    final byte[] data = readFully(firstResponse, first.length);
+                    first.timeMs = SystemClock.elapsedRealtime() - start;
+                    return data;
+                }
+            });
+            chunks.add(first);
+            nextPosition = position + first.length;
+            fill();
+        } else {
+            this.response = response;
+            stream = response.body().byteStream();
+            if (response.code() == 200) {
+                // Whole file from the start
+                skipFully(stream, position);
+            }
+            if (dataSpec.length != C.LENGTH_UNSET) {
+                bytesRemaining = dataSpec.length;
+            } else {
+                final long contentLength = response.body().contentLength();
+                bytesRemaining = contentLength != -1 ? contentLength - (response.code() == 200 ? position : 0) : C.LENGTH_UNSET;
+            }
+        }
+
+        opened = true;
+        transferStarted(dataSpec);
+        return bytesRemaining;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws HttpDataSourceException {
+        if (length == 0) {
+            return 0;
+        }
+        if (bytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        if (stream != null) {
+            return readStream(buffer, offset, length);
+        }
+
+        if (current == null || currentOffset == current.length) {
+            final Chunk chunk = chunks.pollFirst();
+            if (chunk == null) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            fill();
+            current = await(chunk);
+            currentOffset = 0;
+        }
+
+        final int read = (int) Math.min(Math.min(length, current.length - currentOffset), bytesRemaining);
+        System.arraycopy(current, currentOffset, buffer, offset, read);
+        currentOffset += read;
+        bytesRemaining -= read;
+        bytesTransferred(read);
+        fill();
+        return read;
+    }
+
+    private int readStream(byte[] buffer, int offset, int length) throws HttpDataSourceException {
+        if (bytesRemaining != C.LENGTH_UNSET) {
+            length = (int) Math.min(length, bytesRemaining);
+        }
+        final int read;
+        try {
+            read = stream.read(buffer, offset, length);
+        } catch (IOException e) {
+            throw HttpDataSourceException.createForIOException(e, dataSpec, HttpDataSourceException.TYPE_READ);
+        }
+        if (read == -1) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        if (bytesRemaining != C.LENGTH_UNSET) {
+            bytesRemaining -= read;
+        }
+        bytesTransferred(read);
+        return read;
+    }
+
+    // Requests following chunks while there are free connections and room in the buffer
+    private void fill() {
+        int fetching = 0;
+        for (Chunk chunk : chunks) {
+            if (!chunk.future.isDone()) {
+                fetching++;
+            }
+        }
+        final DataSpec dataSpec = this.dataSpec;
+        while (nextPosition < end && chunks.size() < MAX_AHEAD && fetching < connections) {
+            final Chunk chunk = new Chunk(nextPosition, (int) Math.min(CHUNK_SIZE, end - nextPosition));
+            chunk.future = executor.submit(() -> fetch(dataSpec, chunk));
+            chunks.add(chunk);
+            nextPosition += chunk.length;
+            fetching++;
+        }
+    }
+
+    private byte[] fetch(DataSpec dataSpec, Chunk chunk) throws IOException {
+        final long start = SystemClock.elapsedRealtime();
+        final Call call = client.newCall(buildRequest(dataSpec, chunk.position, chunk.length));
+        chunk.call = call;
+        if (chunk.cancelled) {
+            call.cancel();
+        }
+        try (Response response = call.execute()) {
+            if (response.code() != 206) {
+                throw new IOException("Unexpected response " + response.code() + " for range at " + chunk.position);
+            }
+            final byte[] data = readFully(response, chunk.length);
+            chunk.timeMs = SystemClock.elapsedRealtime() - start;
+            return data;
+        }
+    }
+
+    private byte[] await(Chunk chunk) throws HttpDataSourceException {
+        final boolean stalled = !chunk.future.isDone();
+        try {
+            final byte[] data = chunk.future.get();
+            adapt(chunk, stalled);
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpDataSourceException(new InterruptedIOException(), dataSpec,
+                    PlaybackException.ERROR_CODE_IO_UNSPECIFIED, HttpDataSourceException.TYPE_READ);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            final IOException exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            throw HttpDataSourceException.createForIOException(exception, dataSpec, HttpDataSourceException.TYPE_READ);
+        }
+    }
+
+    // Per connection throughput times connections estimates total throughput. Another connection is added when
+    // the reader had to wait for data. If that doesn't raise total throughput, server or link is the limit.
+    private void adapt(Chunk chunk, boolean stalled) {
+        windowChunks++;
+        windowBytes += chunk.length;
+        windowTimeMs += Math.max(1, chunk.timeMs);
+        if (stalled) {
+            windowStalls++;
+        }
+        if (windowChunks < connections * 2) {
+            return;
+        }
+
+        final long throughput = windowBytes * 1000 / windowTimeMs * connections;
+        if (increased && throughput < lastThroughput + lastThroughput / 10) {
+            connections--;
+            maxUsefulConnections = connections;
+            increased = false;
+            Utils.log("Parallel HTTP: " + connections + " connections, more don't help (" + throughput / 1024 + " kB/s)");
+        } else if (windowStalls > 0 && connections < maxUsefulConnections) {
+            connections++;
+            increased = true;
+            Utils.log("Parallel HTTP: " + connections + " connections (" + throughput / 1024 + " kB/s)");
+        } else {
+            increased = false;
+        }
+        lastThroughput = throughput;
+        windowChunks = 0;
+        windowStalls = 0;
+        windowBytes = 0;
+        windowTimeMs = 0;
+    }
+
+    private Request buildRequest(DataSpec dataSpec, long position, long length) {
+        final Request.Builder builder = new Request.Builder().url(dataSpec.uri.toString());
+        for (Map.Entry<String, String> header : defaultRequestProperties.getSnapshot().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : requestProperties.getSnapshot().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : dataSpec.httpRequestHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        final String range = HttpUtil.buildRangeRequestHeader(position, length);
+        if (range != null) {
+            builder.header("Range", range);
+        }
+        // Compressed body would break ranges
+        builder.header("Accept-Encoding", "identity");
+        return builder.build();
+    }
+
+    private Response execute(Call call, int type) throws HttpDataSourceException {
+        try {
+            return call.execute();
+        } catch (IOException e) {
+            throw HttpDataSourceException.createForIOException(e, dataSpec, type);
+        }
+    }
+
+    private static byte[] readFully(Response response, int length) throws IOException {
+        final byte[] data = new byte[length];
+        final InputStream inputStream = response.body().byteStream();
+        int offset = 0;
+        while (offset < length) {
+            final int read = inputStream.read(data, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        return data;
+    }
+
+    private void skipFully(InputStream inputStream, long bytes) throws HttpDataSourceException {
+        try {
+            while (bytes > 0) {
+                final long skipped = inputStream.skip(bytes);
+                if (skipped <= 0) {
+                    if (inputStream.read() == -1) {
+                        throw new EOFException();
+                    }
+                    bytes--;
+                } else {
+                    bytes -= skipped;
+                }
+            }
+        } catch (IOException e) {
+            throw HttpDataSourceException.createForIOException(e, dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri getUri() {
+        return dataSpec != null ? dataSpec.uri : null;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @NonNull
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public void setRequestProperty(@NonNull String name, @NonNull String value) {
+        requestProperties.set(name, value);
+    }
+
+    @Override
+    public void clearRequestProperty(@NonNull String name) {
+        requestProperties.remove(name);
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        requestProperties.clear();
+    }
+
+    @Override
+    public void close() {
+        for (Chunk chunk : chunks) {
+            chunk.cancel();
+        }
+        chunks.clear();
+        current = null;
+        end = 0;
+        nextPosition = 0;
+        if (response != null) {
+            response.close();
+            response = null;
+            stream = null;
+        }
+        responseCode = -1;
+        responseHeaders = Collections.emptyMap();
+        if (opened) {
+            opened = false;
+            transferEnded();
+        }
+        dataSpec = null;
+    }
+}
@@ -0,0 +1,266 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.Format;
+import androidx.media3.common.Player;
+import androidx.media3.exoplayer.DecoderReuseEvaluation;
+import androidx.media3.exoplayer.analytics.AnalyticsListener;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Playback performance of current media: startup, decoders, dropped frames, rebuffering, seeks and bandwidth.
+// Callbacks only update primitive fields (frame callbacks come often), text is built when the overlay
+// refreshes and one summary line per media goes to a rotating log in app's external files dir.
+class PlaybackStats implements AnalyticsListener {
+
+    private static final String LOG_NAME = "playback.log";
+    private static final long LOG_MAX_SIZE = 512 * 1024;
+
+    // Lines waiting for the log, written in order by a single drain task at a time
+    private static final Queue<String> pendingLines = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean draining = new AtomicBoolean();
+
+    private final File logFile;
+
+    @Nullable
+    private Uri uri;
+    private long startMs;
+    private long firstFrameMs;
+    @Nullable
+    private Format videoFormat;
+    @Nullable
+    private String videoDecoder;
+    private long videoDecoderInitMs;
+    @Nullable
+    private String audioDecoder;
+    private long audioDecoderInitMs;
+    private long droppedFrames;
+    private long frameOffsetUs;
+    private long frameOffsetCount;
+    private boolean ready;
+    private boolean playWhenReady;
+    private int rebufferCount;
+    private long rebufferMs;
+    private long rebufferStartMs;
+    private int seekCount;
+    private long seekTotalMs;
+    private long seekMaxMs;
+    private long seekStartMs;
+    private long bitrateEstimate;
+
+    PlaybackStats(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+        logFile = new File(dir, LOG_NAME);
+    }
+
+    // New media, previous one (if any) is logged
+    void start(Uri uri) {
+        finish();
+        this.uri = uri;
+        startMs = SystemClock.elapsedRealtime();
+        firstFrameMs = -1;
+        videoFormat = null;
+        // Decoders are kept (without init event) when warm player reuses them
+        droppedFrames = 0;
+        frameOffsetUs = 0;
+        frameOffsetCount = 0;
+        ready = false;
+        rebufferCount = 0;
+        rebufferMs = 0;
+        rebufferStartMs = -1;
+        seekCount = 0;
+        seekTotalMs = 0;
+        seekMaxMs = 0;
+        seekStartMs = -1;
+    }
+
+    void finish() {
+        if (uri == null)
+            return;
+        final StringBuilder line = new StringBuilder();
+        line.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT).format(new Date()))
+                .append(' ').append(uri.getLastPathSegment())
+                .append(" | ");
+        appendTo(line, " | ");
+        line.append('\n');
+        uri = null;
+        pendingLines.add(line.toString());
+        if (draining.compareAndSet(false, true)) {
+            TaskScheduler.submit(PlaybackStats.class, TaskScheduler.PRIORITY_SUBTITLE, "playbackLog", this::drain);
+        }
+    }
+
+    // Line queued after the last poll but before draining is cleared is picked up by the recheck
+    private void drain() {
+        do {
+            String line;
+            while ((line = pendingLines.poll()) != null) {
+                write(line);
+            }
+            draining.set(false);
+        } while (!pendingLines.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private void write(String line) {
+        if (logFile.length() > LOG_MAX_SIZE) {
+            final File old = new File(logFile.getPath() + ".1");
+            old.delete();
+            logFile.renameTo(old);
+        }
+        try (Writer writer = new FileWriter(logFile, true)) {
+            writer.write(line);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void appendTo(StringBuilder text, String separator) {
+        text.append("First frame: ");
+        if (firstFrameMs >= 0) {
+            text.append(firstFrameMs).append(" ms");
+        } else {
+            text.append('-');
+        }
+        if (videoFormat != null) {
+            text.append(separator).append("Video: ").append(videoFormat.width).append('x').append(videoFormat.height);
+            if (videoFormat.frameRate > 0) {
+                text.append('@').append(Math.round(videoFormat.frameRate * 100) / 100f);
+            }
+            if (videoFormat.codecs != null) {
+                text.append(' ').append(videoFormat.codecs);
+            } else if (videoFormat.sampleMimeType != null) {
+                text.append(' ').append(videoFormat.sampleMimeType);
+            }
+        }
+        if (videoDecoder != null) {
+            text.append(separator).append("Video decoder: ").append(videoDecoder).append(" (").append(videoDecoderInitMs).append(" ms)");
+        }
+        if (audioDecoder != null) {
+            text.append(separator).append("Audio decoder: ").append(audioDecoder).append(" (").append(audioDecoderInitMs).append(" ms)");
+        }
+        text.append(separator).append("Dropped frames: ").append(droppedFrames);
+        text.append(separator).append("Frame offset: ");
+        if (frameOffsetCount > 0) {
+            text.append(frameOffsetUs / frameOffsetCount / 1000).append(" ms avg");
+        } else {
+            text.append('-');
+        }
+        long rebufferMs = this.rebufferMs;
+        if (rebufferStartMs >= 0) {
+            rebufferMs += SystemClock.elapsedRealtime() - rebufferStartMs;
+        }
+        text.append(separator).append("Rebuffers: ").append(rebufferCount).append(" (").append(rebufferMs).append(" ms)");
+        text.append(separator).append("Seeks: ").append(seekCount);
+        if (seekCount > 0) {
+            text.append(" (").append(seekTotalMs / seekCount).append(" ms avg, ").append(seekMaxMs).append(" ms max)");
+        }
+        text.append(separator).append("Bandwidth: ");
+        if (bitrateEstimate > 0) {
+            text.append(bitrateEstimate / 1000).append(" kbps");
+        } else {
+            text.append('-');
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame(@NonNull EventTime eventTime, @NonNull Object output, long renderTimeMs) {
+        if (firstFrameMs < 0 && uri != null) {
+            firstFrameMs = SystemClock.elapsedRealtime() - startMs;
+        }
+        // Seek within buffered data doesn't go through buffering state
+        endSeek(SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    public void onVideoInputFormatChanged(@NonNull EventTime eventTime, @NonNull Format format, @Nullable DecoderReuseEvaluation decoderReuseEvaluation) {
+        videoFormat = format;
+    }
+
+    @Override
+    public void onVideoDecoderInitialized(@NonNull EventTime eventTime, @NonNull String decoderName, long initializedTimestampMs, long initializationDurationMs) {
+        videoDecoder = decoderName;
+        videoDecoderInitMs = initializationDurationMs;
+    }
+
+    @Override
+    public void onAudioDecoderInitialized(@NonNull EventTime eventTime, @NonNull String decoderName, long initializedTimestampMs, long initializationDurationMs) {
+        audioDecoder = decoderName;
+        audioDecoderInitMs = initializationDurationMs;
+    }
+
+    @Override
+    public void onDroppedVideoFrames(@NonNull EventTime eventTime, int droppedFrames, long elapsedMs) {
+        this.droppedFrames += droppedFrames;
+    }
+
+    @Override
+    public void onVideoFrameProcessingOffset(@NonNull EventTime eventTime, long totalProcessingOffsetUs, int frameCount) {
+        frameOffsetUs += totalProcessingOffsetUs;
+        frameOffsetCount += frameCount;
+    }
+
+    @Override
+    public void onPlayWhenReadyChanged(@NonNull EventTime eventTime, boolean playWhenReady, int reason) {
+        this.playWhenReady = playWhenReady;
+    }
+
+    @Override
+    public void onPlaybackStateChanged(@NonNull EventTime eventTime, int state) {
+        final long now = SystemClock.elapsedRealtime();
+        if (state == Player.STATE_READY) {
+            ready = true;
+            if (rebufferStartMs >= 0) {
+                rebufferMs += now - rebufferStartMs;
+                rebufferStartMs = -1;
+            }
+            endSeek(now);
+        } else if (state == Player.STATE_BUFFERING && ready && playWhenReady && seekStartMs < 0) {
+            // Ran out of buffer while playing
+            rebufferCount++;
+            rebufferStartMs = now;
+        }
+    }
+
+    private void endSeek(long now) {
+        if (seekStartMs >= 0) {
+            final long seekMs = now - seekStartMs;
+            seekTotalMs += seekMs;
+            seekMaxMs = Math.max(seekMaxMs, seekMs);
+            seekCount++;
+            seekStartMs = -1;
+        }
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull EventTime eventTime, @NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+        if (reason == Player.DISCONTINUITY_REASON_SEEK && ready) {
+            seekStartMs = SystemClock.elapsedRealtime();
+            if (rebufferStartMs >= 0) {
+                rebufferMs += seekStartMs - rebufferStartMs;
+                rebufferStartMs = -1;
+            }
+        }
+    }
+
+    @Override
+    public void onBandwidthEstimate(@NonNull EventTime eventTime, int totalLoadTimeMs, long totalBytesLoaded, long bitrateEstimate) {
+        this.bitrateEstimate = bitrateEstimate;
+    }
+}
@@ -32,7 +32,9 @@ import android.media.audiofx.LoudnessEnhancer;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -61,11 +63,11 @@ import android.window.OnBackInvokedCallback;
 import android.window.OnBackInvokedDispatcher;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.coordinatorlayout.widget.CoordinatorLayout;
 import androidx.core.content.ContextCompat;
-import androidx.documentfile.provider.DocumentFile;
 import androidx.media3.common.AudioAttributes;
 import androidx.media3.common.C;
 import androidx.media3.common.Format;
@@ -74,20 +76,29 @@ import androidx.media3.common.MediaMetadata;
 import androidx.media3.common.MimeTypes;
 import androidx.media3.common.PlaybackException;
 import androidx.media3.common.Player;
+import androidx.media3.common.Timeline;
 import androidx.media3.common.TrackGroup;
 import androidx.media3.common.TrackSelectionOverride;
 import androidx.media3.common.TrackSelectionParameters;
 import androidx.media3.common.Tracks;
-import androidx.media3.datasource.DefaultHttpDataSource;
+import androidx.media3.datasource.DataSource;
+import androidx.media3.datasource.DefaultDataSource;
+import androidx.media3.datasource.HttpDataSource;
+import androidx.media3.datasource.okhttp.OkHttpDataSource;
 import androidx.media3.exoplayer.DefaultRenderersFactory;
 import androidx.media3.exoplayer.ExoPlaybackException;
 import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.PlayerMessage;
+import androidx.media3.exoplayer.Renderer;
 import androidx.media3.exoplayer.RenderersFactory;
 import androidx.media3.exoplayer.SeekParameters;
 import androidx.media3.exoplayer.source.DefaultMediaSourceFactory;
+import androidx.media3.exoplayer.text.TextOutput;
 import androidx.media3.exoplayer.trackselection.DefaultTrackSelector;
+import androidx.media3.exoplayer.upstream.BandwidthMeter;
+import androidx.media3.exoplayer.upstream.DefaultBandwidthMeter;
 import androidx.media3.extractor.DefaultExtractorsFactory;
-import androidx.media3.extractor.text.SubtitleParser;
+import androidx.media3.extractor.ExtractorsFactory;
 import androidx.media3.extractor.ts.DefaultTsPayloadReaderFactory;
 import androidx.media3.extractor.ts.TsExtractor;
 import androidx.media3.session.MediaSession;
@@ -103,8 +114,8 @@ import com.brouken.player.dtpv.DoubleTapPlayerView;
 import com.brouken.player.dtpv.youtube.YouTubeOverlay;
 import com.brouken.player.osd.OsdSettingsController;
 import com.brouken.player.subtitle.CueModifier;
+import com.brouken.player.subtitle.SubtitleDelayRenderer;
 import com.brouken.player.subtitle.parser.EnhancedSubtitleParserFactory;
-import com.brouken.player.subtitle.parser.OffsetSubtitleParserFactory;
 import com.getkeepsafe.taptargetview.TapTarget;
 import com.getkeepsafe.taptargetview.TapTargetView;
 import com.google.android.material.snackbar.Snackbar;
@@ -117,6 +128,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -129,10 +141,18 @@ public class PlayerActivity extends Activity {
     private AudioManager mAudioManager;
     private MediaSession mediaSession;
     private DefaultTrackSelector trackSelector;
+    private EnhancedSubtitleParserFactory subtitleParserFactory;
+    private HttpDataSource.Factory httpDataSourceFactory;
+    private AdaptiveLoadControl loadControl;
+    private PlaybackStats playbackStats;
+    // Configuration the current player was built with
+    private String playerConfig;
+    private static int loudnessEnhancerSessionId;
     public static LoudnessEnhancer loudnessEnhancer;
 
     public CustomPlayerView playerView;
     public static ExoPlayer player;
+    public static SeekScheduler seekScheduler;
     private YouTubeOverlay youTubeOverlay;
     private OsdSettingsController osdSettingsController;
 
@@ -159,6 +179,8 @@ public class PlayerActivity extends Activity {
     private static final int REQUEST_SETTINGS = 100;
     public static final int REQUEST_SYSTEM_CAPTIONS = 200;
     public static final int CONTROLLER_TIMEOUT = 3500;
+    // Buffered ahead for the preloaded next file, kept short as it shares the buffer budget with the current one
+    private static final long PRELOAD_DURATION_US = 5_000_000;
     private static final String ACTION_MEDIA_CONTROL = "media_control";
     private static final String EXTRA_CONTROL_TYPE = "control_type";
     private static final int REQUEST_PLAY = 1;
@@ -186,16 +208,18 @@ public class PlayerActivity extends Activity {
     private boolean isScrubbing;
     private boolean scrubbingNoticeable;
     private long scrubbingStart;
-    public boolean frameRendered;
     private boolean alive;
     private final AtomicInteger subtitleDelayMs = new AtomicInteger();
-    private final Runnable subtitleDelayApplyRunnable = this::applySubtitleDelay;
     public static boolean focusPlay = false;
     private Uri nextUri;
     private static boolean isTvBox;
     public static boolean locked = false;
-    private Thread nextUriThread;
-    public Thread frameRateSwitchThread;
+    private Future<?> nextUriTask;
+    private MediaItem nextMediaItem;
+    private PlayerMessage preloadMessage;
+    public Future<?> frameRateSwitchTask;
+    // Owner of background tasks for current media, cancelled on release
+    final Object playbackTasks = new Object();
 
     public static boolean restoreControllerTimeout = false;
     public static boolean shortControllerTimeout = false;
@@ -215,8 +239,17 @@ public class PlayerActivity extends Activity {
     boolean apiAccessPartial;
     String apiTitle;
     List<MediaItem.SubtitleConfiguration> apiSubs = new ArrayList<>();
+    // Intent supplied subtitles in intent order, null until downloaded/converted
+    private MediaItem.SubtitleConfiguration[] apiSubSlots;
+    private final Runnable apiSubsAttachRunnable = this::attachApiSubs;
+    private long launchTime;
+    private boolean firstFrameLogged;
     boolean intentReturnResult;
     boolean playbackFinished;
+    // Paused at the end of current file with next one preloaded after it
+    private boolean pausedAtEnd;
+    // Current media with late subtitles, applied on next pause
+    private MediaItem pendingMediaItem;
 
     DisplayManager displayManager;
     DisplayManager.DisplayListener displayListener;
@@ -233,6 +266,7 @@ public class PlayerActivity extends Activity {
     @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        launchTime = SystemClock.elapsedRealtime();
         // Rotate ASAP, before super/inflating to avoid glitches with activity launch animation
         mPrefs = new Prefs(this);
         Utils.setOrientation(this, mPrefs.orientation);
@@ -300,6 +334,7 @@ public class PlayerActivity extends Activity {
 
                 mPrefs.updateMedia(this, uri, type);
 
+                boolean haveApiSubs = false;
                 if (bundle != null) {
                     Uri defaultSub = null;
                     Parcelable[] subsEnable = bundle.getParcelableArray(API_SUBS_ENABLE);
@@ -316,21 +351,12 @@ public class PlayerActivity extends Activity {
                         subUriList.add(element);
                     }
 
-                    List<Uri> subs = new SubtitleConverter().convertSubtitles(this, subUriList);
                     String[] subsName = bundle.getStringArray(API_SUBS_NAME);
-
-                    for (int i = 0; i < subs.size(); i++) {
-                        Uri sub = subs.get(i);
-                        String name = null;
-                        if (subsName != null && subsName.length > i) {
-                            name = subsName[i];
-                        }
-                        boolean selected = sub.equals(defaultSub) || subs.size() == 1;
-                        apiSubs.add(SubtitleUtils.buildSubtitle(this, sub, name, selected));
-                    }
+                    loadApiSubs(subUriList, subsName, defaultSub);
+                    haveApiSubs = !subUriList.isEmpty();
                 }
 
-                if (apiSubs.isEmpty()) {
+                if (!haveApiSubs) {
                     searchSubtitles();
                 }
 
@@ -376,10 +402,8 @@ public class PlayerActivity extends Activity {
                 }
                 scrubbingNoticeable = false;
                 isScrubbing = true;
-                frameRendered = true;
                 playerView.setControllerShowTimeoutMs(-1);
                 scrubbingStart = player.getCurrentPosition();
-                player.setSeekParameters(SeekParameters.CLOSEST_SYNC);
                 reportScrubbing(position);
             }
 
@@ -391,7 +415,11 @@ public class PlayerActivity extends Activity {
             @Override
             public void onScrubStop(TimeBar timeBar, long position, boolean canceled) {
                 playerView.setCustomErrorMessage(null);
+                playerView.hideThumbnail();
                 isScrubbing = false;
+                if (seekScheduler != null && !canceled) {
+                    seekScheduler.finish(position);
+                }
                 if (restorePlayState) {
                     restorePlayState = false;
                     playerView.setControllerShowTimeoutMs(PlayerActivity.CONTROLLER_TIMEOUT);
@@ -756,7 +784,7 @@ public class PlayerActivity extends Activity {
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
             if (useMediaStore()) {
-                Utils.scanMediaStorage(this);
+                BucketIndex.getInstance(this).scanAsync();
             }
         }
 
@@ -817,6 +845,8 @@ public class PlayerActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        TaskScheduler.cancel(playbackTasks);
+        TaskScheduler.cancel(this);
         mPrefs.mSharedPreferences.unregisterOnSharedPreferenceChangeListener(preferenceListener);
     }
 
@@ -1134,6 +1164,7 @@ public class PlayerActivity extends Activity {
         apiAccessPartial = false;
         apiTitle = null;
         apiSubs.clear();
+        apiSubSlots = null;
         mPrefs.setPersistent(true);
     }
 
@@ -1236,130 +1267,94 @@ public class PlayerActivity extends Activity {
 
     private void handleSubtitles(Uri uri) {
         // Convert subtitles to UTF-8 if necessary
-        SubtitleUtils.clearCache(this);
         uri = Utils.convertToUTF(this, uri);
         mPrefs.updateSubtitle(uri);
     }
 
     public void initializePlayer() {
         boolean isNetworkUri = Utils.isSupportedNetworkUri(mPrefs.mediaUri);
+        boolean preloaded = false;
         haveMedia = mPrefs.mediaUri != null;
 
+        final String config = getPlayerConfig();
         if (player != null) {
             player.removeListener(playerListener);
-            player.clearMediaItems();
-            player.release();
-            player = null;
+            if (config.equals(playerConfig)) {
+                // Keep warm player (and its codecs), only media changes
+                if (!haveMedia) {
+                    player.stop();
+                    player.clearMediaItems();
+                }
+            } else {
+                player.clearMediaItems();
+                player.release();
+                player = null;
+            }
         }
 
-        trackSelector = new DefaultTrackSelector(this);
-        trackSelector.setParameters(trackSelector.buildUponParameters()
-                .setAllowInvalidateSelectionsOnRendererCapabilitiesChange(true));
+        if (player == null) {
+            buildPlayer();
+            playerConfig = config;
+        } else {
+            Utils.log("Reusing player");
+        }
+        cancelPreload();
+        player.setPauseAtEndOfMediaItems(false);
+        pausedAtEnd = false;
+        pendingMediaItem = null;
+
+        // Same as fresh track selector, drops track overrides of previous media
+        DefaultTrackSelector.Parameters.Builder parameters = DefaultTrackSelector.Parameters.getDefaults(this).buildUpon()
+                .setAllowInvalidateSelectionsOnRendererCapabilitiesChange(true);
         if (mPrefs.tunneling) {
-            trackSelector.setParameters(trackSelector.buildUponParameters()
-                    .setTunnelingEnabled(true)
-            );
+            parameters.setTunnelingEnabled(true);
         }
         switch (mPrefs.languageAudio) {
             case Prefs.TRACK_DEFAULT:
                 break;
             case Prefs.TRACK_DEVICE:
-                trackSelector.setParameters(trackSelector.buildUponParameters()
-                        .setPreferredAudioLanguages(Utils.getDeviceLanguages())
-                );
+                parameters.setPreferredAudioLanguages(Utils.getDeviceLanguages());
                 break;
             default:
-                trackSelector.setParameters(trackSelector.buildUponParameters()
-                        .setPreferredAudioLanguages(mPrefs.languageAudio)
-                );
+                parameters.setPreferredAudioLanguages(mPrefs.languageAudio);
         }
         final CaptioningManager captioningManager = (CaptioningManager) getSystemService(Context.CAPTIONING_SERVICE);
         if (!captioningManager.isEnabled()) {
-            trackSelector.setParameters(trackSelector.buildUponParameters()
-                    .setIgnoredTextSelectionFlags(C.SELECTION_FLAG_DEFAULT)
-            );
+            parameters.setIgnoredTextSelectionFlags(C.SELECTION_FLAG_DEFAULT);
         }
         Locale locale = captioningManager.getLocale();
         if (locale != null) {
-            trackSelector.setParameters(trackSelector.buildUponParameters()
-                    .setPreferredTextLanguage(locale.getISO3Language())
-            );
+            parameters.setPreferredTextLanguage(locale.getISO3Language());
         }
+        trackSelector.setParameters(parameters);
 
         int subtitleDelay = mPrefs.getSubtitleDelayForUri(mPrefs.mediaUri);
         subtitleDelayMs.set(subtitleDelay);
 
-        EnhancedSubtitleParserFactory enhancedSubtitleParserFactory = new EnhancedSubtitleParserFactory(0);
-        SubtitleParser.Factory subtitleParserFactory =
-                new OffsetSubtitleParserFactory(enhancedSubtitleParserFactory, subtitleDelayMs);
-
-        // https://github.com/google/ExoPlayer/issues/8571
-        DefaultExtractorsFactory extractorsFactory = new DefaultExtractorsFactory()
-                .setTsExtractorFlags(DefaultTsPayloadReaderFactory.FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS)
-                .setTsExtractorTimestampSearchBytes(1500 * TsExtractor.TS_PACKET_SIZE)
-                .setSubtitleParserFactory(subtitleParserFactory);
-
-        @SuppressLint("WrongConstant") RenderersFactory renderersFactory = new DefaultRenderersFactory(this)
-                .setExtensionRendererMode(mPrefs.decoderPriority)
-                .setMapDV7ToHevc(mPrefs.mapDV7ToHevc);
-
-        DefaultMediaSourceFactory mediaSourceFactory =
-                new DefaultMediaSourceFactory(this, extractorsFactory)
-                        .setSubtitleParserFactory(subtitleParserFactory);
-
-        ExoPlayer.Builder playerBuilder = new ExoPlayer.Builder(this, renderersFactory)
-                .setTrackSelector(trackSelector)
-                .setMediaSourceFactory(mediaSourceFactory);
+        subtitleParserFactory.setFallbackFrameRate(0);
+        final Uri frameRateUri = mPrefs.mediaUri;
+        UtilsKt.calculateFrameRateOnTheFly(player, frameRate -> {
+            if (frameRateUri != null && frameRateUri.equals(mPrefs.mediaUri)) {
+                FrameRateCache.getInstance(this).putAsync(frameRateUri, frameRate.floatValue());
+            }
+            if (subtitleParserFactory.setFallbackFrameRate(frameRate)) {
+                restartPlayback();
+            }
+            return Unit.INSTANCE;
+        });
 
+        HashMap<String, String> headers = new HashMap<>();
         if (haveMedia && isNetworkUri) {
             if (mPrefs.mediaUri.getScheme().toLowerCase().startsWith("http")) {
-                HashMap<String, String> headers = new HashMap<>();
                 String userInfo = mPrefs.mediaUri.getUserInfo();
                 if (userInfo != null && userInfo.length() > 0 && userInfo.contains(":")) {
                     headers.put("Authorization", "Basic " + Base64.encodeToString(userInfo.getBytes(), Base64.NO_WRAP));
-                    DefaultHttpDataSource.Factory defaultHttpDataSourceFactory = new DefaultHttpDataSource.Factory();
-                    defaultHttpDataSourceFactory.setDefaultRequestProperties(headers);
-                    DefaultMediaSourceFactory networkMediaSourceFactory =
-                            new DefaultMediaSourceFactory(defaultHttpDataSourceFactory, extractorsFactory)
-                                    .setSubtitleParserFactory(subtitleParserFactory);
-                    playerBuilder.setMediaSourceFactory(networkMediaSourceFactory);
                 }
             }
         }
+        httpDataSourceFactory.setDefaultRequestProperties(headers);
 
-        player = playerBuilder.build();
-
-        AudioAttributes audioAttributes = new AudioAttributes.Builder()
-                .setUsage(C.USAGE_MEDIA)
-                .setContentType(C.AUDIO_CONTENT_TYPE_MOVIE)
-                .build();
-        player.setAudioAttributes(audioAttributes, true);
-
-        UtilsKt.calculateFrameRateOnTheFly(player, frameRate -> {
-            if (enhancedSubtitleParserFactory.setFallbackFrameRate(frameRate)) {
-                restartPlayback();
-            }
-            return Unit.INSTANCE;
-        });
-
-        if (mPrefs.skipSilence) {
-            player.setSkipSilenceEnabled(true);
-        }
-
-        youTubeOverlay.player(player);
-        playerView.setPlayer(player);
-
-        if (mediaSession != null) {
-            mediaSession.release();
-        }
-
-        if (player.canAdvertiseSession()) {
-            try {
-                mediaSession = new MediaSession.Builder(this, player).build();
-            } catch (IllegalStateException e) {
-                e.printStackTrace();
-            }
-        }
+        player.setSkipSilenceEnabled(mPrefs.skipSilence);
 
         playerView.setControllerShowTimeoutMs(-1);
 
@@ -1382,37 +1377,49 @@ public class PlayerActivity extends Activity {
             }
             updatebuttonAspectRatioIcon();
 
-            MediaItem.Builder mediaItemBuilder = new MediaItem.Builder()
-                    .setUri(mPrefs.mediaUri)
-                    .setMimeType(mPrefs.mediaType);
+            loadControl.setProfile(AdaptiveLoadControl.getProfile(mPrefs.bufferProfile, mPrefs.mediaUri));
+            playbackStats.start(mPrefs.mediaUri);
+            playerView.setThumbnails(null);
+            playerView.setStats(mPrefs.statsOverlay ? playbackStats : null);
+
             String title;
             if (apiTitle != null) {
                 title = apiTitle;
             } else {
                 title = Utils.getFileName(PlayerActivity.this, mPrefs.mediaUri, false);
             }
-            if (title != null) {
-                final MediaMetadata mediaMetadata = new MediaMetadata.Builder()
-                        .setTitle(title)
-                        .setDisplayTitle(title)
-                        .build();
-                mediaItemBuilder.setMediaMetadata(mediaMetadata);
-            }
+            MediaItem mediaItem;
             if (apiAccess && apiSubs.size() > 0) {
-                mediaItemBuilder.setSubtitleConfigurations(apiSubs);
+                mediaItem = buildMediaItem(mPrefs.mediaUri, mPrefs.mediaType, title, null).buildUpon()
+                        .setSubtitleConfigurations(apiSubs)
+                        .build();
             } else if (mPrefs.subtitleUri != null && Utils.fileExists(this, mPrefs.subtitleUri)) {
-                MediaItem.SubtitleConfiguration subtitle = SubtitleUtils.buildSubtitle(this, mPrefs.subtitleUri, null, true);
-                mediaItemBuilder.setSubtitleConfigurations(Collections.singletonList(subtitle));
+                mediaItem = buildMediaItem(mPrefs.mediaUri, mPrefs.mediaType, title, mPrefs.subtitleUri);
+            } else {
+                mediaItem = buildMediaItem(mPrefs.mediaUri, mPrefs.mediaType, title, null);
+            }
+            if (player.getMediaItemCount() == 1 && mediaItem.equals(player.getCurrentMediaItem())
+                    && player.getPlaybackState() != Player.STATE_IDLE) {
+                // Preloaded while playing previous file, keep what is already buffered
+                Utils.log("Using preloaded media");
+                preloaded = true;
+                if (mPrefs.getPosition() > 0) {
+                    player.seekTo(mPrefs.getPosition());
+                }
+            } else {
+                player.setMediaItem(mediaItem, mPrefs.getPosition());
             }
-            player.setMediaItem(mediaItemBuilder.build(), mPrefs.getPosition());
 
-            try {
-                if (loudnessEnhancer != null) {
-                    loudnessEnhancer.release();
+            if (loudnessEnhancer == null || loudnessEnhancerSessionId != player.getAudioSessionId()) {
+                try {
+                    if (loudnessEnhancer != null) {
+                        loudnessEnhancer.release();
+                    }
+                    loudnessEnhancer = new LoudnessEnhancer(player.getAudioSessionId());
+                    loudnessEnhancerSessionId = player.getAudioSessionId();
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
-                loudnessEnhancer = new LoudnessEnhancer(player.getAudioSessionId());
-            } catch (Exception e) {
-                e.printStackTrace();
             }
 
             notifyAudioSessionUpdate(true);
@@ -1437,17 +1444,7 @@ public class PlayerActivity extends Activity {
             ((DoubleTapPlayerView) playerView).setDoubleTapEnabled(true);
 
             if (!apiAccess) {
-                if (nextUriThread != null) {
-                    nextUriThread.interrupt();
-                }
-                nextUri = null;
-                nextUriThread = new Thread(() -> {
-                    Uri uri = findNext();
-                    if (!Thread.currentThread().isInterrupted()) {
-                        nextUri = uri;
-                    }
-                });
-                nextUriThread.start();
+                startNextSearch();
             }
 
             player.setHandleAudioBecomingNoisy(!isTvBox);
@@ -1459,6 +1456,11 @@ public class PlayerActivity extends Activity {
         player.addListener(playerListener);
         player.prepare();
 
+        if (preloaded && player.getPlaybackState() == Player.STATE_READY) {
+            // Already buffered, there won't be any state change to wait for
+            playerListener.onPlaybackStateChanged(Player.STATE_READY);
+        }
+
         if (restorePlayState) {
             restorePlayState = false;
             playerView.showController();
@@ -1467,6 +1469,151 @@ public class PlayerActivity extends Activity {
         }
     }
 
+    private MediaItem buildMediaItem(Uri uri, @Nullable String mimeType, @Nullable String title, @Nullable Uri subtitleUri) {
+        MediaItem.Builder mediaItemBuilder = new MediaItem.Builder()
+                .setUri(uri)
+                .setMimeType(mimeType);
+        if (title != null) {
+            final MediaMetadata mediaMetadata = new MediaMetadata.Builder()
+                    .setTitle(title)
+                    .setDisplayTitle(title)
+                    .build();
+            mediaItemBuilder.setMediaMetadata(mediaMetadata);
+        }
+        if (subtitleUri != null) {
+            MediaItem.SubtitleConfiguration subtitle = SubtitleUtils.buildSubtitle(this, subtitleUri, null, true);
+            mediaItemBuilder.setSubtitleConfigurations(Collections.singletonList(subtitle));
+        }
+        return mediaItemBuilder.build();
+    }
+
+    // Preload next file once playback gets close to the end of the current one
+    private void schedulePreload() {
+        if (player == null || nextMediaItem == null || preloadMessage != null || player.getMediaItemCount() != 1)
+            return;
+        final long duration = player.getDuration();
+        if (duration == C.TIME_UNSET)
+            return;
+        final long position = Math.max(0, duration - TimeUnit.SECONDS.toMillis(mPrefs.preloadNext));
+        if (player.getCurrentPosition() >= position) {
+            preloadNext();
+            return;
+        }
+        preloadMessage = player.createMessage((messageType, message) -> preloadNext())
+                .setLooper(Looper.getMainLooper())
+                .setPosition(position)
+                .send();
+    }
+
+    private void preloadNext() {
+        preloadMessage = null;
+        if (player == null || nextMediaItem == null || player.getMediaItemCount() != 1
+                || player.getRepeatMode() != Player.REPEAT_MODE_OFF)
+            return;
+        Utils.log("Preloading " + nextMediaItem.localConfiguration.uri);
+        // Still stop at the end of current file, next one is only a skipToNext() away
+        player.setPauseAtEndOfMediaItems(true);
+        player.addMediaItem(nextMediaItem);
+    }
+
+    private void cancelPreload() {
+        if (preloadMessage != null) {
+            preloadMessage.cancel();
+            preloadMessage = null;
+        }
+        nextMediaItem = null;
+    }
+
+    // Settings that can't be changed on existing player (renderers)
+    private String getPlayerConfig() {
+        return mPrefs.decoderPriority + "/" + mPrefs.mapDV7ToHevc + "/" + mPrefs.mediaCache + "/" + mPrefs.parallelHttp + "/" + mPrefs.seekIndex;
+    }
+
+    private void buildPlayer() {
+        trackSelector = new DefaultTrackSelector(this);
+
+        subtitleParserFactory = new EnhancedSubtitleParserFactory(0, new File(getCacheDir(), "cues"));
+
+        // https://github.com/google/ExoPlayer/issues/8571
+        ExtractorsFactory extractorsFactory = new DefaultExtractorsFactory()
+                .setTsExtractorFlags(DefaultTsPayloadReaderFactory.FLAG_ENABLE_HDMV_DTS_AUDIO_STREAMS)
+                .setTsExtractorTimestampSearchBytes(1500 * TsExtractor.TS_PACKET_SIZE)
+                .setSubtitleParserFactory(subtitleParserFactory);
+        if (mPrefs.seekIndex) {
+            extractorsFactory = new SeekIndexExtractorsFactory(this, extractorsFactory);
+        }
+
+        @SuppressLint("WrongConstant") RenderersFactory renderersFactory = new DefaultRenderersFactory(this) {
+            @Override
+            protected void buildTextRenderers(@NonNull Context context, @NonNull TextOutput output, @NonNull Looper outputLooper, int extensionRendererMode, @NonNull ArrayList<Renderer> out) {
+                int start = out.size();
+                super.buildTextRenderers(context, output, outputLooper, extensionRendererMode, out);
+                // Subtitle delay is applied when rendering
+                for (int i = start; i < out.size(); i++) {
+                    out.set(i, new SubtitleDelayRenderer(out.get(i), subtitleDelayMs));
+                }
+            }
+        }
+                .setExtensionRendererMode(mPrefs.decoderPriority)
+                .setMapDV7ToHevc(mPrefs.mapDV7ToHevc);
+
+        if (mPrefs.parallelHttp) {
+            httpDataSourceFactory = new ParallelHttpDataSource.Factory(HttpClient.getMediaClient(this));
+        } else {
+            httpDataSourceFactory = new OkHttpDataSource.Factory(HttpClient.getMediaClient(this));
+        }
+        DataSource.Factory networkDataSourceFactory = MediaCache.getInstance(this)
+                .wrap(httpDataSourceFactory, mPrefs.mediaCache * 1024L * 1024L);
+
+        DefaultMediaSourceFactory mediaSourceFactory =
+                new DefaultMediaSourceFactory(new DefaultDataSource.Factory(this, networkDataSourceFactory), extractorsFactory)
+                        .setSubtitleParserFactory(subtitleParserFactory);
+
+        BandwidthMeter bandwidthMeter = DefaultBandwidthMeter.getSingletonInstance(this);
+        loadControl = new AdaptiveLoadControl(this, bandwidthMeter);
+
+        ExoPlayer.Builder playerBuilder = new ExoPlayer.Builder(this, renderersFactory)
+                .setTrackSelector(trackSelector)
+                .setMediaSourceFactory(mediaSourceFactory)
+                .setBandwidthMeter(bandwidthMeter)
+                .setLoadControl(loadControl);
+
+        player = playerBuilder.build();
+        if (playbackStats == null) {
+            playbackStats = new PlaybackStats(this);
+        }
+        player.addAnalyticsListener(playbackStats);
+        if (seekScheduler != null) {
+            seekScheduler.release();
+        }
+        seekScheduler = new SeekScheduler(player);
+        // Playlist items after the current one only buffer their first seconds, and only when the LoadControl
+        // lets the current one stop loading, so the preloaded next file never starves it
+        player.setPreloadConfiguration(new ExoPlayer.PreloadConfiguration(PRELOAD_DURATION_US));
+
+        AudioAttributes audioAttributes = new AudioAttributes.Builder()
+                .setUsage(C.USAGE_MEDIA)
+                .setContentType(C.AUDIO_CONTENT_TYPE_MOVIE)
+                .build();
+        player.setAudioAttributes(audioAttributes, true);
+
+        youTubeOverlay.player(player);
+        playerView.setPlayer(player);
+
+        if (mediaSession != null) {
+            mediaSession.release();
+            mediaSession = null;
+        }
+
+        if (player.canAdvertiseSession()) {
+            try {
+                mediaSession = new MediaSession.Builder(this, player).build();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     private void savePlayer() {
         if (player != null) {
             mPrefs.updateBrightness(mBrightnessControl.currentBrightnessLevel);
@@ -1486,11 +1633,16 @@ public class PlayerActivity extends Activity {
         }
     }
 
+    // For media change: player is kept warm for following initializePlayer()
     public void releasePlayer() {
-        releasePlayer(true);
+        releasePlayer(true, true);
     }
 
     public void releasePlayer(boolean save) {
+        releasePlayer(save, false);
+    }
+
+    private void releasePlayer(boolean save, boolean keepWarm) {
         if (save) {
             savePlayer();
         }
@@ -1498,24 +1650,52 @@ public class PlayerActivity extends Activity {
         if (player != null) {
             notifyAudioSessionUpdate(false);
 
-//            mediaSession.setActive(false);
-            if (mediaSession != null) {
-                mediaSession.release();
-            }
-
             if (player.isPlaying() && restorePlayStateAllowed) {
                 restorePlayState = true;
             }
             player.removeListener(playerListener);
-            player.clearMediaItems();
-            player.release();
-            player = null;
+            TaskScheduler.cancel(playbackTasks);
+            playbackStats.finish();
+            if (preloadMessage != null) {
+                preloadMessage.cancel();
+                preloadMessage = null;
+            }
+            if (keepWarm && player.getMediaItemCount() > 1) {
+                // Only the preloaded next file stays, already buffered for following initializePlayer()
+                player.pause();
+                player.removeMediaItems(0, player.getMediaItemCount() - 1);
+            } else if (keepWarm) {
+                player.stop();
+                player.clearMediaItems();
+            } else {
+//                mediaSession.setActive(false);
+                if (mediaSession != null) {
+                    mediaSession.release();
+                    mediaSession = null;
+                }
+                player.clearMediaItems();
+                player.release();
+                player = null;
+                playerConfig = null;
+                seekScheduler.release();
+                seekScheduler = null;
+                playerView.setStats(null);
+                playerView.setThumbnails(null);
+            }
         }
         titleView.setVisibility(View.GONE);
         updateButtons(false);
     }
 
     private class PlayerListener implements Player.Listener {
+        @Override
+        public void onRenderedFirstFrame() {
+            if (!firstFrameLogged) {
+                Utils.log("Time to first frame: " + (SystemClock.elapsedRealtime() - launchTime) + " ms");
+                firstFrameLogged = true;
+            }
+        }
+
         @Override
         public void onAudioSessionIdChanged(int audioSessionId) {
             try {
@@ -1523,6 +1703,7 @@ public class PlayerActivity extends Activity {
                     loudnessEnhancer.release();
                 }
                 loudnessEnhancer = new LoudnessEnhancer(audioSessionId);
+                loudnessEnhancerSessionId = audioSessionId;
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -1557,6 +1738,10 @@ public class PlayerActivity extends Activity {
 
             if (!isPlaying) {
                 PlayerActivity.locked = false;
+
+                if (pendingMediaItem != null && player.getPlaybackState() == Player.STATE_READY && !player.getPlayWhenReady()) {
+                    replaceCurrentMediaItem(pendingMediaItem);
+                }
             }
         }
 
@@ -1574,11 +1759,21 @@ public class PlayerActivity extends Activity {
             setEndControlsVisible(haveMedia && (state == Player.STATE_ENDED || isNearEnd));
 
             if (state == Player.STATE_READY) {
-                frameRendered = true;
+                schedulePreload();
 
                 if (videoLoading) {
                     videoLoading = false;
 
+                    if (haveMedia && mPrefs.scrubPreview && player.getVideoFormat() != null) {
+                        // Only once playback started not to compete with it for decoder
+                        final Uri uri = mPrefs.mediaUri;
+                        ThumbnailIndex.load(PlayerActivity.this, uri, playbackTasks, thumbnails -> {
+                            if (uri.equals(mPrefs.mediaUri) && player != null) {
+                                playerView.setThumbnails(thumbnails);
+                            }
+                        });
+                    }
+
                     if (mPrefs.orientation == Utils.Orientation.UNSPECIFIED) {
                         mPrefs.orientation = Utils.getNextOrientation(mPrefs.orientation);
                         Utils.setOrientation(PlayerActivity.this, mPrefs.orientation);
@@ -1675,6 +1870,58 @@ public class PlayerActivity extends Activity {
             }
         }
 
+        @Override
+        public void onPlayWhenReadyChanged(boolean playWhenReady, int reason) {
+            if (reason == Player.PLAY_WHEN_READY_CHANGE_REASON_END_OF_MEDIA_ITEM) {
+                // Paused at the end with next file preloaded, same as ended
+                pausedAtEnd = true;
+                playbackFinished = true;
+                setEndControlsVisible(haveMedia);
+            } else if (playWhenReady && pausedAtEnd) {
+                // Play on the end screen replays (as when ended) instead of running into the preloaded file
+                pausedAtEnd = false;
+                player.seekTo(player.getCurrentMediaItemIndex(), 0);
+            }
+        }
+
+        @Override
+        public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+            if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+                pausedAtEnd = false;
+                // Seek rebuffers anyway, good time for subtitles held back during playback
+                if (pendingMediaItem != null) {
+                    applyMediaItem(pendingMediaItem);
+                }
+            }
+        }
+
+        @Override
+        public void onMediaItemTransition(@Nullable MediaItem mediaItem, int reason) {
+            if (reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO && nextUri != null) {
+                // Played on past the end into preloaded next file, finished one is stored as played to the end
+                // now, player already reports position of the next one
+                final int previousIndex = player.getPreviousMediaItemIndex();
+                if (previousIndex != C.INDEX_UNSET) {
+                    final long durationMs = player.getCurrentTimeline().getWindow(previousIndex, new Timeline.Window()).getDurationMs();
+                    if (durationMs != C.TIME_UNSET) {
+                        mPrefs.updatePosition(durationMs);
+                    }
+                }
+                playerView.post(() -> skipToNext(false));
+            }
+        }
+
+        @Override
+        public void onRepeatModeChanged(int repeatMode) {
+            if (repeatMode != Player.REPEAT_MODE_OFF && player.getMediaItemCount() > 1) {
+                // Don't pause at the end of each loop
+                player.setPauseAtEndOfMediaItems(false);
+                player.removeMediaItems(player.getCurrentMediaItemIndex() + 1, player.getMediaItemCount());
+            } else if (repeatMode == Player.REPEAT_MODE_OFF) {
+                schedulePreload();
+            }
+        }
+
         @Override
         public void onPlayerError(PlaybackException error) {
             updateLoading(false);
@@ -2050,11 +2297,8 @@ public class PlayerActivity extends Activity {
             playerView.clearIcon();
             playerView.setCustomErrorMessage(Utils.formatMilisSign(diff));
         }
-        if (frameRendered) {
-            frameRendered = false;
-            if (player != null) {
-                player.seekTo(position);
-            }
+        if (!playerView.showThumbnail(position) && seekScheduler != null) {
+            seekScheduler.seek(position);
         }
     }
 
@@ -2101,14 +2345,7 @@ public class PlayerActivity extends Activity {
 
     public void updateSubtitleDelay(int delayMs) {
         mPrefs.updateSubtitleDelay(delayMs);
-        playerView.removeCallbacks(subtitleDelayApplyRunnable);
-        playerView.postDelayed(subtitleDelayApplyRunnable, 500);
-    }
-
-    private void applySubtitleDelay() {
-        int newDelayMs = mPrefs.getSubtitleDelayForUri(mPrefs.mediaUri);
-        subtitleDelayMs.set(newDelayMs);
-        restartPlayback();
+        subtitleDelayMs.set(mPrefs.getSubtitleDelayForUri(mPrefs.mediaUri));
     }
 
     private void restartPlayback() {
@@ -2130,88 +2367,228 @@ public class PlayerActivity extends Activity {
             return;
 
         if (Utils.isSupportedNetworkUri(mPrefs.mediaUri) && Utils.isProgressiveContainerUri(mPrefs.mediaUri)) {
-            SubtitleUtils.clearCache(this);
             if (SubtitleFinder.isUriCompatible(mPrefs.mediaUri)) {
-                subtitleFinder = new SubtitleFinder(PlayerActivity.this, mPrefs.mediaUri);
-                subtitleFinder.start();
+                final Uri mediaUri = mPrefs.mediaUri;
+                TaskScheduler.submit(this, TaskScheduler.PRIORITY_SUBTITLE, "discoverSubtitle", () -> {
+                    SubtitleDiscoveryCache.Entry discovered = SubtitleDiscoveryCache.getInstance(this).get(mediaUri);
+                    runOnUiThread(() -> {
+                        if (!mediaUri.equals(mPrefs.mediaUri))
+                            return;
+                        if (discovered == null) {
+                            subtitleFinder = new SubtitleFinder(PlayerActivity.this, mediaUri);
+                            subtitleFinder.start();
+                        } else if (discovered.isFound()) {
+                            setFoundSubtitle(mediaUri, Uri.fromFile(discovered.file));
+                            SubtitleFetcher.revalidate(this, mediaUri, discovered);
+                        }
+                    });
+                });
             }
             return;
         }
 
+        Uri subtitle = findSubtitle(mPrefs.mediaUri, true);
+        if (subtitle != null) {
+            handleSubtitles(subtitle);
+        }
+    }
+
+    // Sidecar subtitle of local media, attachLater makes subtitle found once scope crawl locates the media get used
+    @Nullable
+    private Uri findSubtitle(Uri mediaUri, boolean attachLater) {
         if (mPrefs.scopeUri != null || isTvBox) {
-            DocumentFile video = null;
-            File videoRaw = null;
-            final String scheme = mPrefs.mediaUri.getScheme();
+            final int queries = DocumentLister.getQueryCount();
+            DocumentEntry video = null;
+            Uri dir = null;
+            final String scheme = mediaUri.getScheme();
 
             if (mPrefs.scopeUri != null) {
-                if ("com.android.externalstorage.documents".equals(mPrefs.mediaUri.getHost()) ||
-                        "org.courville.nova.provider".equals(mPrefs.mediaUri.getHost())) {
+                if ("com.android.externalstorage.documents".equals(mediaUri.getHost()) ||
+                        "org.courville.nova.provider".equals(mediaUri.getHost())) {
                     // Fast search based on path in uri
-                    video = SubtitleUtils.findUriInScope(this, mPrefs.scopeUri, mPrefs.mediaUri);
+                    video = SubtitleUtils.findUriInScope(this, mPrefs.scopeUri, mediaUri);
                 } else {
                     // Slow search based on matching metadata, no path in uri
                     // Provider "com.android.providers.media.documents" when using "Videos" tab in file picker
-                    DocumentFile fileScope = DocumentFile.fromTreeUri(this, mPrefs.scopeUri);
-                    DocumentFile fileMedia = DocumentFile.fromSingleUri(this, mPrefs.mediaUri);
-                    video = SubtitleUtils.findDocInScope(fileScope, fileMedia);
+                    DocumentEntry fileMedia = DocumentLister.query(this, mediaUri);
+                    ScopeIndex.Match match = ScopeIndex.getInstance(this).find(mPrefs.scopeUri, fileMedia, !attachLater ? null : indexed -> {
+                        Uri subtitle = SubtitleUtils.findSubtitle(this, fileMedia.name, indexed.parent);
+                        if (subtitle != null) {
+                            final Uri converted = Utils.convertToUTF(this, subtitle);
+                            runOnUiThread(() -> setFoundSubtitle(mediaUri, converted));
+                        }
+                    });
+                    if (match != null) {
+                        video = fileMedia;
+                        dir = match.parent;
+                    }
                 }
             } else if (ContentResolver.SCHEME_FILE.equals(scheme)) {
-                videoRaw = new File(mPrefs.mediaUri.getSchemeSpecificPart());
-                video = DocumentFile.fromFile(videoRaw);
+                video = DocumentLister.query(this, Uri.fromFile(new File(mediaUri.getSchemeSpecificPart())));
             }
 
+            Uri subtitle = null;
             if (video != null) {
-                DocumentFile subtitle = null;
-                if (mPrefs.scopeUri != null) {
-                    subtitle = SubtitleUtils.findSubtitle(video);
-                } else if (ContentResolver.SCHEME_FILE.equals(scheme)) {
-                    File parentRaw = videoRaw.getParentFile();
-                    DocumentFile dir = DocumentFile.fromFile(parentRaw);
-                    subtitle = SubtitleUtils.findSubtitle(video, dir);
+                if (dir == null)
+                    dir = video.parentUri;
+                subtitle = SubtitleUtils.findSubtitle(this, video.name, dir);
+            }
+            Utils.log("Subtitle search: " + (DocumentLister.getQueryCount() - queries) + " queries");
+            return subtitle;
+        }
+        return null;
+    }
+
+    void setFoundSubtitle(Uri mediaUri, Uri subtitleUri) {
+        if (mediaUri != null && !mediaUri.equals(mPrefs.mediaUri))
+            return;
+        mPrefs.updateSubtitle(subtitleUri);
+        if (player != null) {
+            MediaItem mediaItem = pendingMediaItem != null ? pendingMediaItem : player.getCurrentMediaItem();
+            if (mediaItem != null) {
+                MediaItem.SubtitleConfiguration subtitle = SubtitleUtils.buildSubtitle(this, subtitleUri, null, true);
+                mediaItem = mediaItem.buildUpon().setSubtitleConfigurations(Collections.singletonList(subtitle)).build();
+                replaceCurrentMediaItem(mediaItem);
+                if (BuildConfig.DEBUG) {
+                    Toast.makeText(this, "Subtitle found", Toast.LENGTH_SHORT).show();
                 }
+            }
+        }
+    }
 
-                if (subtitle != null) {
-                    handleSubtitles(subtitle.getUri());
+    private void loadApiSubs(List<Uri> uris, String[] names, Uri defaultSub) {
+        final MediaItem.SubtitleConfiguration[] slots = new MediaItem.SubtitleConfiguration[uris.size()];
+        apiSubSlots = slots;
+        new SubtitleConverter().convertSubtitles(this, uris, (index, sub) -> {
+            if (slots != apiSubSlots)
+                return;
+            String name = null;
+            if (names != null && names.length > index) {
+                name = names[index];
+            }
+            boolean selected = uris.get(index).equals(defaultSub) || uris.size() == 1;
+            slots[index] = SubtitleUtils.buildSubtitle(this, sub, name, selected);
+            apiSubs.clear();
+            for (MediaItem.SubtitleConfiguration slot : slots) {
+                if (slot != null) {
+                    apiSubs.add(slot);
                 }
             }
+            Utils.log("Subtitle " + index + " ready after " + (SystemClock.elapsedRealtime() - launchTime) + " ms");
+            // Already playing, attach subtitles arriving close together at once
+            if (player != null) {
+                playerView.removeCallbacks(apiSubsAttachRunnable);
+                playerView.postDelayed(apiSubsAttachRunnable, 200);
+            }
+        });
+    }
+
+    private void attachApiSubs() {
+        if (player == null || !apiAccess)
+            return;
+        MediaItem mediaItem = pendingMediaItem != null ? pendingMediaItem : player.getCurrentMediaItem();
+        if (mediaItem == null)
+            return;
+        mediaItem = mediaItem.buildUpon().setSubtitleConfigurations(new ArrayList<>(apiSubs)).build();
+        replaceCurrentMediaItem(mediaItem);
+    }
+
+    // Changed subtitle configuration means preparing the media again, which rebuffers. Fine until playback
+    // starts or while paused, during playback it waits for the next pause or seek.
+    private void replaceCurrentMediaItem(MediaItem mediaItem) {
+        if (!videoLoading && player.isPlaying()) {
+            if (pendingMediaItem == null) {
+                Utils.showText(playerView, getString(R.string.subtitles_pending), 2500);
+            }
+            pendingMediaItem = mediaItem;
+            return;
+        }
+        applyMediaItem(mediaItem);
+    }
+
+    private void applyMediaItem(MediaItem mediaItem) {
+        pendingMediaItem = null;
+        MediaItem preloadedItem = null;
+        final int count = player.getMediaItemCount();
+        if (count > 1 && player.getCurrentMediaItemIndex() == count - 2) {
+            preloadedItem = player.getMediaItemAt(count - 1);
+        }
+        player.setMediaItem(mediaItem, false);
+        if (preloadedItem != null) {
+            // Playlist was replaced, preloaded next file goes back after it
+            player.addMediaItem(preloadedItem);
         }
     }
 
-    Uri findNext() {
+    // Next file (and its preloading) resolved in background
+    private void startNextSearch() {
+        if (nextUriTask != null) {
+            nextUriTask.cancel(true);
+        }
+        nextUri = null;
+        final Uri mediaUri = mPrefs.mediaUri;
+        final boolean preload = mPrefs.preloadNext > 0;
+        nextUriTask = TaskScheduler.submit(playbackTasks, TaskScheduler.PRIORITY_PLAYBACK, "next", () -> {
+            Uri uri = findNext(mediaUri, match -> runOnUiThread(() -> {
+                // Located by scope crawl only now
+                if (mediaUri.equals(mPrefs.mediaUri) && haveMedia && player != null && nextUri == null) {
+                    startNextSearch();
+                }
+            }));
+            if (!Thread.currentThread().isInterrupted()) {
+                nextUri = uri;
+            }
+            if (uri != null && preload && !Thread.currentThread().isInterrupted()) {
+                // Same item as skipToNext() builds (including sidecar subtitle) so the preloaded one gets used
+                final String type = ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) ? getContentResolver().getType(uri) : null;
+                Uri subtitle = findSubtitle(uri, false);
+                if (subtitle != null) {
+                    subtitle = Utils.convertToUTF(this, subtitle);
+                }
+                final MediaItem item = buildMediaItem(uri, type, Utils.getFileName(this, uri, false), subtitle);
+                runOnUiThread(() -> {
+                    if (uri.equals(nextUri) && haveMedia) {
+                        nextMediaItem = item;
+                        schedulePreload();
+                    }
+                });
+            }
+        });
+    }
+
+    Uri findNext(Uri mediaUri, @Nullable ScopeIndex.Callback onIndexed) {
         // TODO: Unify with searchSubtitles()
         if (mPrefs.scopeUri != null || isTvBox) {
-            DocumentFile video = null;
-            File videoRaw = null;
+            final int queries = DocumentLister.getQueryCount();
+            DocumentEntry video = null;
+            Uri dir = null;
 
             if (!isTvBox && mPrefs.scopeUri != null) {
-                if ("com.android.externalstorage.documents".equals(mPrefs.mediaUri.getHost())) {
+                if ("com.android.externalstorage.documents".equals(mediaUri.getHost())) {
                     // Fast search based on path in uri
-                    video = SubtitleUtils.findUriInScope(this, mPrefs.scopeUri, mPrefs.mediaUri);
+                    video = SubtitleUtils.findUriInScope(this, mPrefs.scopeUri, mediaUri);
                 } else {
                     // Slow search based on matching metadata, no path in uri
                     // Provider "com.android.providers.media.documents" when using "Videos" tab in file picker
-                    DocumentFile fileScope = DocumentFile.fromTreeUri(this, mPrefs.scopeUri);
-                    DocumentFile fileMedia = DocumentFile.fromSingleUri(this, mPrefs.mediaUri);
-                    video = SubtitleUtils.findDocInScope(fileScope, fileMedia);
+                    DocumentEntry fileMedia = DocumentLister.query(this, mediaUri);
+                    ScopeIndex.Match match = ScopeIndex.getInstance(this).find(mPrefs.scopeUri, fileMedia, onIndexed);
+                    if (match != null) {
+                        video = fileMedia;
+                        dir = match.parent;
+                    }
                 }
             } else if (isTvBox) {
-                videoRaw = new File(mPrefs.mediaUri.getSchemeSpecificPart());
-                video = DocumentFile.fromFile(videoRaw);
+                video = DocumentLister.query(this, Uri.fromFile(new File(mediaUri.getSchemeSpecificPart())));
             }
 
+            Uri next = null;
             if (video != null) {
-                DocumentFile next;
-                if (!isTvBox) {
-                    next = SubtitleUtils.findNext(video);
-                } else {
-                    File parentRaw = videoRaw.getParentFile();
-                    DocumentFile dir = DocumentFile.fromFile(parentRaw);
-                    next = SubtitleUtils.findNext(video, dir);
-                }
-                if (next != null) {
-                    return next.getUri();
-                }
+                if (dir == null)
+                    dir = video.parentUri;
+                next = SubtitleUtils.findNext(this, video.name, dir);
             }
+            Utils.log("Next search: " + (DocumentLister.getQueryCount() - queries) + " queries");
+            return next;
         }
         return null;
     }
@@ -2227,7 +2604,7 @@ public class PlayerActivity extends Activity {
                 loadSubtitleFile(mPrefs.mediaUri);
             }
             if (skipToNextOnCancel) {
-                nextUri = findNext();
+                nextUri = findNext(mPrefs.mediaUri, null);
                 if (nextUri != null) {
                     skipToNext();
                 }
@@ -2367,10 +2744,27 @@ public class PlayerActivity extends Activity {
     }
 
     void skipToNext() {
+        skipToNext(true);
+    }
+
+    private void skipToNext(boolean save) {
         if (nextUri != null) {
-            releasePlayer();
+            MediaItem preloadedItem = null;
+            if (player != null && player.getMediaItemCount() > 1) {
+                preloadedItem = player.getMediaItemAt(player.getMediaItemCount() - 1);
+            }
+            releasePlayer(save, true);
             mPrefs.updateMedia(this, nextUri, null);
-            searchSubtitles();
+            if (preloadedItem != null && preloadedItem.localConfiguration != null
+                    && nextUri.equals(preloadedItem.localConfiguration.uri)) {
+                // Sidecar subtitle was already resolved (and converted) when preloading
+                final List<MediaItem.SubtitleConfiguration> subtitles = preloadedItem.localConfiguration.subtitleConfigurations;
+                if (!subtitles.isEmpty()) {
+                    mPrefs.updateSubtitle(subtitles.get(0).uri);
+                }
+            } else {
+                searchSubtitles();
+            }
             initializePlayer();
         }
     }
@@ -0,0 +1,251 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Resume positions as an append-only log of fixed size records: [uri hash][trail path hash][position].
+// Replaying the log in order rebuilds the LRU, the file is compacted once it grows past a few times the live entries.
+class PositionStore {
+
+    private static final String FILE_NAME = "positions.bin";
+    private static final String LEGACY_FILE_NAME = "positions";
+
+    private static final int MAGIC = 0x4A505053;
+    private static final int MAX_ENTRIES = 100;
+    private static final int COMPACT_THRESHOLD = MAX_ENTRIES * 4;
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_SIZE = 24;
+
+    private static PositionStore instance;
+
+    private final File file;
+    private final File legacyFile;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PositionStore");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    // Guarded by itself, insertion order is kept as LRU order
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES + 1);
+    // Number of records in the log file, only touched from executor
+    private int records;
+
+    private static final class Entry {
+        final long trailHash;
+        final long position;
+
+        Entry(long trailHash, long position) {
+            this.trailHash = trailHash;
+            this.position = position;
+        }
+    }
+
+    static synchronized PositionStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new PositionStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private PositionStore(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        legacyFile = new File(context.getFilesDir(), LEGACY_FILE_NAME);
+        executor.execute(this::load);
+    }
+
+    long get(Uri uri) {
+        awaitLoaded();
+        final long hash = Utils.hash(uri.toString());
+        synchronized (entries) {
+            final Entry entry = entries.get(hash);
+            if (entry != null)
+                return entry.position;
+
+            // Return position for uri from limited scope (loaded after using Next action)
+            if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+                final long trailHash = trailHash(uri);
+                if (trailHash == 0)
+                    return 0L;
+                final List<Entry> values = new ArrayList<>(entries.values());
+                for (int i = values.size() - 1; i >= 0; i--) {
+                    if (values.get(i).trailHash == trailHash)
+                        return values.get(i).position;
+                }
+            }
+        }
+        return 0L;
+    }
+
+    void put(Uri uri, long position) {
+        final long hash = Utils.hash(uri.toString());
+        final Entry entry = new Entry(trailHash(uri), position);
+        putEntry(entries, hash, entry);
+        executor.execute(() -> append(hash, entry));
+    }
+
+    private void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void putEntry(LinkedHashMap<Long, Entry> map, long hash, Entry entry) {
+        synchronized (map) {
+            map.remove(hash);
+            map.put(hash, entry);
+            while (map.size() > MAX_ENTRIES)
+                map.remove(map.keySet().iterator().next());
+        }
+    }
+
+    private void load() {
+        final LinkedHashMap<Long, Entry> stored = new LinkedHashMap<>(MAX_ENTRIES + 1);
+        boolean rewrite = false;
+        try {
+            if (file.exists()) {
+                rewrite = !readLog(stored);
+            } else if (legacyFile.exists()) {
+                migrateLegacy(stored);
+                rewrite = true;
+            }
+        } catch (Exception e) {
+            Log.w(Utils.TAG, e);
+            // Appending to unreadable log would keep everything after it unreadable
+            rewrite = true;
+        }
+
+        synchronized (entries) {
+            // Positions saved before loading finished are newer than anything stored
+            final LinkedHashMap<Long, Entry> recent = new LinkedHashMap<>(entries);
+            entries.clear();
+            entries.putAll(stored);
+            for (Map.Entry<Long, Entry> entry : recent.entrySet())
+                putEntry(entries, entry.getKey(), entry.getValue());
+        }
+        loaded.countDown();
+
+        if (rewrite || records > COMPACT_THRESHOLD)
+            compact();
+    }
+
+    // False when the file isn't a log (unknown header) and has to be written again
+    private boolean readLog(LinkedHashMap<Long, Entry> map) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                return false;
+            while (true) {
+                final long hash = in.readLong();
+                final long trailHash = in.readLong();
+                final long position = in.readLong();
+                putEntry(map, hash, new Entry(trailHash, position));
+                records++;
+            }
+        } catch (EOFException e) {
+            // End of log, possibly with a torn last record
+        }
+        if (records == 0 && file.length() < HEADER_SIZE)
+            return false;
+        // Torn record is cut off, otherwise following appends would be read misaligned
+        final long length = HEADER_SIZE + (long) RECORD_SIZE * records;
+        if (file.length() != length) {
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(length);
+            }
+        }
+        return true;
+    }
+
+    private void migrateLegacy(LinkedHashMap<Long, Entry> map) {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyFile)))) {
+            final Map<?, ?> legacy = (Map<?, ?>) in.readObject();
+            for (Map.Entry<?, ?> legacyEntry : legacy.entrySet()) {
+                if (legacyEntry.getKey() instanceof String && legacyEntry.getValue() instanceof Long) {
+                    final Uri uri = Uri.parse((String) legacyEntry.getKey());
+                    putEntry(map, Utils.hash(uri.toString()), new Entry(trailHash(uri), (Long) legacyEntry.getValue()));
+                }
+            }
+        } catch (Exception e) {
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    private void append(long hash, Entry entry) {
+        if (records >= COMPACT_THRESHOLD) {
+            compact();
+            return;
+        }
+        final boolean exists = file.exists();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            if (!exists)
+                out.writeInt(MAGIC);
+            writeRecord(out, hash, entry);
+            records++;
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    private void compact() {
+        final File tmp = new File(file.getPath() + ".tmp");
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            synchronized (entries) {
+                for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+                    writeRecord(out, entry.getKey(), entry.getValue());
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            records = count;
+            legacyFile.delete();
+        } else {
+            tmp.delete();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, long hash, Entry entry) throws IOException {
+        out.writeLong(hash);
+        out.writeLong(entry.trailHash);
+        out.writeLong(entry.position);
+    }
+
+    private static long trailHash(Uri uri) {
+        if (!ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()))
+            return 0;
+        final String trailPath = SubtitleUtils.getTrailPathFromUri(uri);
+        if (trailPath == null || trailPath.length() < 1)
+            return 0;
+        return Utils.hash(trailPath);
+    }
+}
@@ -19,13 +19,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
 public class Prefs {
     // Previously used
@@ -51,6 +46,13 @@ public class Prefs {
     private static final String PREF_KEY_SKIP_SILENCE = "skipSilence";
     private static final String PREF_KEY_FRAMERATE_MATCHING = "frameRateMatching";
     private static final String PREF_KEY_REPEAT_TOGGLE = "repeatToggle";
+    private static final String PREF_KEY_PRELOAD_NEXT = "preloadNext";
+    private static final String PREF_KEY_MEDIA_CACHE = "mediaCache";
+    private static final String PREF_KEY_PARALLEL_HTTP = "parallelHttp";
+    private static final String PREF_KEY_BUFFER_PROFILE = "bufferProfile";
+    private static final String PREF_KEY_SCRUB_PREVIEW = "scrubPreview";
+    private static final String PREF_KEY_SEEK_INDEX = "seekIndex";
+    private static final String PREF_KEY_STATS_OVERLAY = "statsOverlay";
     private static final String PREF_KEY_SPEED = "speed";
     private static final String PREF_KEY_FILE_ACCESS = "fileAccess";
     private static final String PREF_KEY_DECODER_PRIORITY = "decoderPriority";
@@ -98,6 +100,15 @@ public class Prefs {
     public boolean skipSilence = false;
     public boolean frameRateMatching = false;
     public boolean repeatToggle = false;
+    // Seconds before end of file when next file gets preloaded, 0 disables preloading
+    public int preloadNext = 60;
+    // Megabytes of disk for caching network media, 0 disables the cache
+    public int mediaCache = 0;
+    public boolean parallelHttp = false;
+    public String bufferProfile = AdaptiveLoadControl.PROFILE_AUTO;
+    public boolean scrubPreview = true;
+    public boolean seekIndex = true;
+    public boolean statsOverlay = false;
     public String fileAccess = "auto";
     public int decoderPriority = DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON;
     public boolean mapDV7ToHevc = false;
@@ -110,7 +121,7 @@ public class Prefs {
     public boolean subtitleCustomFontEnabled;
     public String subtitleCustomFontName;
 
-    private LinkedHashMap positions;
+    private final PositionStore positionStore;
     private final LinkedHashMap<String, Integer> subtitleDelayMap = new LinkedHashMap<>();
 
     public boolean persistentMode = true;
@@ -119,8 +130,8 @@ public class Prefs {
     public Prefs(Context context) {
         mContext = context;
         mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        positionStore = PositionStore.getInstance(context);
         loadSavedPreferences();
-        loadPositions();
     }
 
     private static <T extends Enum<T>> T valueOfEnum(@NonNull Class<T> clazz, @Nullable String name, @NonNull T defaultValue) {
@@ -163,6 +174,13 @@ public class Prefs {
         skipSilence = mSharedPreferences.getBoolean(PREF_KEY_SKIP_SILENCE, skipSilence);
         frameRateMatching = mSharedPreferences.getBoolean(PREF_KEY_FRAMERATE_MATCHING, frameRateMatching);
         repeatToggle = mSharedPreferences.getBoolean(PREF_KEY_REPEAT_TOGGLE, repeatToggle);
+        preloadNext = Integer.parseInt(mSharedPreferences.getString(PREF_KEY_PRELOAD_NEXT, String.valueOf(preloadNext)));
+        mediaCache = Integer.parseInt(mSharedPreferences.getString(PREF_KEY_MEDIA_CACHE, String.valueOf(mediaCache)));
+        parallelHttp = mSharedPreferences.getBoolean(PREF_KEY_PARALLEL_HTTP, parallelHttp);
+        bufferProfile = mSharedPreferences.getString(PREF_KEY_BUFFER_PROFILE, bufferProfile);
+        scrubPreview = mSharedPreferences.getBoolean(PREF_KEY_SCRUB_PREVIEW, scrubPreview);
+        seekIndex = mSharedPreferences.getBoolean(PREF_KEY_SEEK_INDEX, seekIndex);
+        statsOverlay = mSharedPreferences.getBoolean(PREF_KEY_STATS_OVERLAY, statsOverlay);
         fileAccess = mSharedPreferences.getString(PREF_KEY_FILE_ACCESS, fileAccess);
         decoderPriority = Integer.parseInt(mSharedPreferences.getString(PREF_KEY_DECODER_PRIORITY, String.valueOf(decoderPriority)));
         mapDV7ToHevc = mSharedPreferences.getBoolean(PREF_KEY_MAP_DV7, mapDV7ToHevc);
@@ -226,12 +244,8 @@ public class Prefs {
         if (mediaUri == null)
             return;
 
-        while (positions.size() > 100)
-            positions.remove(positions.keySet().toArray()[0]);
-
         if (persistentMode) {
-            positions.put(mediaUri.toString(), position);
-            savePositions();
+            positionStore.put(mediaUri, position);
         } else {
             nonPersitentPosition = position;
         }
@@ -260,60 +274,12 @@ public class Prefs {
         sharedPreferencesEditor.apply();
     }
 
-    private void savePositions() {
-        try {
-            FileOutputStream fos = mContext.openFileOutput("positions", Context.MODE_PRIVATE);
-            ObjectOutputStream os = new ObjectOutputStream(fos);
-            os.writeObject(positions);
-            os.close();
-            fos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void loadPositions() {
-        try {
-            FileInputStream fis = mContext.openFileInput("positions");
-            ObjectInputStream is = new ObjectInputStream(fis);
-            positions = (LinkedHashMap) is.readObject();
-            is.close();
-            fis.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            positions = new LinkedHashMap(10);
-        }
-    }
-
     public long getPosition() {
         if (!persistentMode) {
             return nonPersitentPosition;
         }
 
-        Object val = positions.get(mediaUri.toString());
-        if (val != null)
-            return (long) val;
-
-        // Return position for uri from limited scope (loaded after using Next action)
-        if (ContentResolver.SCHEME_CONTENT.equals(mediaUri.getScheme())) {
-            final String searchPath = SubtitleUtils.getTrailPathFromUri(mediaUri);
-            if (searchPath == null || searchPath.length() < 1)
-                return 0L;
-            final Set<String> keySet = positions.keySet();
-            final Object[] keys = keySet.toArray();
-            for (int i = keys.length; i > 0; i--) {
-                final String key = (String) keys[i - 1];
-                final Uri uri = Uri.parse(key);
-                if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
-                    final String keyPath = SubtitleUtils.getTrailPathFromUri(uri);
-                    if (searchPath.equals(keyPath)) {
-                        return (long) positions.get(key);
-                    }
-                }
-            }
-        }
-
-        return 0L;
+        return positionStore.get(mediaUri);
     }
 
     public void updateOrientation() {
@@ -0,0 +1,323 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// (display name, size) -> document index of the whole scope tree, used to locate media opened through
+// providers without any path in their uri (e.g. "Videos" tab of the file picker).
+// The tree is crawled in the background at lowest priority of the shared pool, directories with unchanged mtime are not listed again.
+class ScopeIndex {
+
+    private static final String FILE_NAME = "scope.idx";
+    private static final int VERSION = 1;
+    // Missing document doesn't make the tree crawled again sooner than this
+    private static final long RECRAWL_MS = 30_000;
+
+    private static ScopeIndex instance;
+
+    private final File file;
+    private final Context context;
+
+    private String scope;
+    private Map<String, Dir> dirs = new HashMap<>();
+    private Map<String, Match> index = new HashMap<>();
+    private boolean crawling;
+    private long crawledAt = Long.MIN_VALUE / 2;
+    private final List<Waiting> waiting = new ArrayList<>();
+
+    static final class Match {
+        final Uri uri;
+        final Uri parent;
+
+        Match(Uri uri, Uri parent) {
+            this.uri = uri;
+            this.parent = parent;
+        }
+    }
+
+    private static final class Waiting {
+        final String key;
+        final Callback callback;
+
+        Waiting(String key, Callback callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Dir {
+        final long lastModified;
+        final List<String> names = new ArrayList<>();
+        final List<Long> sizes = new ArrayList<>();
+        final List<String> documentIds = new ArrayList<>();
+        final List<String> subdirs = new ArrayList<>();
+
+        Dir(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+
+    static synchronized ScopeIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new ScopeIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ScopeIndex(Context context) {
+        this.context = context;
+        this.file = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    interface Callback {
+        // Called on background thread once the crawl has indexed the document, not at all when it's not found
+        void onMatch(Match match);
+    }
+
+    // Never waits for the crawl, a miss starts (incremental) crawl and the match is handed to callback later
+    @Nullable
+    Match find(Uri scopeUri, DocumentEntry doc, @Nullable Callback callback) {
+        if (scopeUri == null || doc == null)
+            return null;
+        final String key = getKey(doc.name, doc.size);
+
+        synchronized (this) {
+            setScope(scopeUri);
+            final Match match = index.get(key);
+            if (match != null)
+                return match;
+            if (crawling || SystemClock.elapsedRealtime() - crawledAt > RECRAWL_MS) {
+                if (callback != null) {
+                    waiting.add(new Waiting(key, callback));
+                }
+                refresh();
+            }
+        }
+        return null;
+    }
+
+    private static String getKey(String name, long size) {
+        return size + "/" + name;
+    }
+
+    private void setScope(Uri scopeUri) {
+        final String newScope = scopeUri.toString();
+        if (newScope.equals(scope))
+            return;
+        scope = newScope;
+        dirs = new HashMap<>();
+        index = new HashMap<>();
+        crawling = false;
+        crawledAt = Long.MIN_VALUE / 2;
+        waiting.clear();
+        read();
+    }
+
+    private synchronized void refresh() {
+        if (crawling)
+            return;
+        crawling = true;
+
+        final String crawlScope = scope;
+        final Uri treeUri = Uri.parse(crawlScope);
+        final Map<String, Dir> previous = dirs;
+        final Map<String, Dir> result = new ConcurrentHashMap<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        final long start = System.currentTimeMillis();
+
+        final Runnable done = () -> {
+            final List<Waiting> found = new ArrayList<>();
+            synchronized (this) {
+                if (crawlScope.equals(scope)) {
+                    dirs = new HashMap<>(result);
+                    index = buildIndex(treeUri, dirs);
+                    write();
+                    crawling = false;
+                    crawledAt = SystemClock.elapsedRealtime();
+                    for (Waiting entry : waiting) {
+                        if (index.containsKey(entry.key))
+                            found.add(entry);
+                    }
+                    waiting.clear();
+                }
+            }
+            Utils.log("Scope crawled in " + (System.currentTimeMillis() - start) + " ms, " + result.size() + " directories");
+            for (Waiting entry : found) {
+                final Match match;
+                synchronized (this) {
+                    match = index.get(entry.key);
+                }
+                if (match != null)
+                    entry.callback.onMatch(match);
+            }
+        };
+
+        final String rootId = DocumentsContract.getTreeDocumentId(treeUri);
+        TaskScheduler.submit(this, TaskScheduler.PRIORITY_INDEX, "scopeIndex", new Visit(treeUri, rootId, -1, previous, result, pending, done));
+    }
+
+    private class Visit implements Runnable {
+        private final Uri treeUri;
+        private final String documentId;
+        private final long lastModified;
+        private final Map<String, Dir> previous;
+        private final Map<String, Dir> result;
+        private final AtomicInteger pending;
+        private final Runnable done;
+
+        Visit(Uri treeUri, String documentId, long lastModified, Map<String, Dir> previous, Map<String, Dir> result, AtomicInteger pending, Runnable done) {
+            this.treeUri = treeUri;
+            this.documentId = documentId;
+            this.lastModified = lastModified;
+            this.previous = previous;
+            this.result = result;
+            this.pending = pending;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                visit();
+            } catch (Exception e) {
+                Log.w(Utils.TAG, e);
+            } finally {
+                if (pending.decrementAndGet() == 0)
+                    done.run();
+            }
+        }
+
+        private void visit() {
+            final long modified = lastModified >= 0 ? lastModified : queryLastModified();
+            final Dir old = previous.get(documentId);
+            if (old != null && modified > 0 && old.lastModified == modified) {
+                result.put(documentId, old);
+                for (String subdir : old.subdirs)
+                    submit(subdir, -1);
+                return;
+            }
+
+            final Dir dir = new Dir(modified);
+            final List<Long> subdirsModified = new ArrayList<>();
+            final Uri dirUri = DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId);
+            final List<DocumentEntry> entries = DocumentLister.list(context, dirUri);
+            if (entries == null)
+                return;
+            for (DocumentEntry entry : entries) {
+                final String id = DocumentsContract.getDocumentId(entry.uri);
+                if (entry.isDirectory()) {
+                    dir.subdirs.add(id);
+                    subdirsModified.add(entry.lastModified);
+                } else {
+                    dir.names.add(entry.name);
+                    dir.sizes.add(entry.size);
+                    dir.documentIds.add(id);
+                }
+            }
+            result.put(documentId, dir);
+            for (int i = 0; i < dir.subdirs.size(); i++)
+                submit(dir.subdirs.get(i), subdirsModified.get(i));
+        }
+
+        private void submit(String subdir, long subdirLastModified) {
+            pending.incrementAndGet();
+            TaskScheduler.submit(ScopeIndex.this, TaskScheduler.PRIORITY_INDEX, "scopeIndex", new Visit(treeUri, subdir, subdirLastModified, previous, result, pending, done));
+        }
+
+        private long queryLastModified() {
+            final DocumentEntry entry = DocumentLister.query(context, DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId));
+            return entry != null ? entry.lastModified : 0;
+        }
+    }
+
+    private static Map<String, Match> buildIndex(Uri treeUri, Map<String, Dir> dirs) {
+        final Map<String, Match> index = new HashMap<>();
+        for (Map.Entry<String, Dir> entry : dirs.entrySet()) {
+            final Dir dir = entry.getValue();
+            final Uri parent = DocumentsContract.buildDocumentUriUsingTree(treeUri, entry.getKey());
+            for (int i = 0; i < dir.names.size(); i++) {
+                final Uri uri = DocumentsContract.buildDocumentUriUsingTree(treeUri, dir.documentIds.get(i));
+                index.put(getKey(dir.names.get(i), dir.sizes.get(i)), new Match(uri, parent));
+            }
+        }
+        return index;
+    }
+
+    private void read() {
+        if (!file.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION || !scope.equals(in.readUTF()))
+                return;
+            final Map<String, Dir> stored = new HashMap<>();
+            final int dirCount = in.readInt();
+            for (int i = 0; i < dirCount; i++) {
+                final String documentId = in.readUTF();
+                final Dir dir = new Dir(in.readLong());
+                final int fileCount = in.readInt();
+                for (int j = 0; j < fileCount; j++) {
+                    dir.names.add(in.readUTF());
+                    dir.sizes.add(in.readLong());
+                    dir.documentIds.add(in.readUTF());
+                }
+                final int subdirCount = in.readInt();
+                for (int j = 0; j < subdirCount; j++)
+                    dir.subdirs.add(in.readUTF());
+                stored.put(documentId, dir);
+            }
+            dirs = stored;
+            index = buildIndex(Uri.parse(scope), dirs);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    private void write() {
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeUTF(scope);
+            out.writeInt(dirs.size());
+            for (Map.Entry<String, Dir> entry : dirs.entrySet()) {
+                final Dir dir = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(dir.lastModified);
+                out.writeInt(dir.names.size());
+                for (int i = 0; i < dir.names.size(); i++) {
+                    out.writeUTF(dir.names.get(i));
+                    out.writeLong(dir.sizes.get(i));
+                    out.writeUTF(dir.documentIds.get(i));
+                }
+                out.writeInt(dir.subdirs.size());
+                for (String subdir : dir.subdirs)
+                    out.writeUTF(subdir);
+            }
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file))
+            tmp.delete();
+    }
+}
@@ -0,0 +1,167 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+import androidx.media3.extractor.SeekMap;
+import androidx.media3.extractor.SeekPoint;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+// Sidecar seek index of local media: timestamps and byte offsets of points where the extractor can resume parsing
+// at a key frame (Matroska clusters, fragmented MP4 fragments). Built in background on first play, used for files
+// the extractor itself can't seek in (Matroska without Cues, fragmented MP4 without sidx).
+// Empty index records that the file seeks fine on its own or can't be indexed, so it's not scanned again.
+class SeekIndex {
+
+    private static final String DIR_NAME = "seek";
+    private static final int MAGIC = 0x4A505358;
+    private static final int VERSION = 1;
+    private static final int MAX_FILES = 500;
+
+    private static final Set<String> building = Collections.synchronizedSet(new HashSet<>());
+
+    final long[] timesUs;
+    final long[] positions;
+
+    SeekIndex(long[] timesUs, long[] positions) {
+        this.timesUs = timesUs;
+        this.positions = positions;
+    }
+
+    boolean isEmpty() {
+        return timesUs.length == 0;
+    }
+
+    // Stored index or null when there is none (yet), missing one gets built in background
+    @Nullable
+    static SeekIndex get(Context context, Uri uri) {
+        final String key = Utils.getMediaKey(context, uri);
+        final File file = new File(new File(context.getCacheDir(), DIR_NAME), key + ".idx");
+        if (file.exists()) {
+            final SeekIndex index = read(file);
+            if (index != null) {
+                file.setLastModified(System.currentTimeMillis());
+                return index;
+            }
+        }
+        if (building.add(key)) {
+            final Context appContext = context.getApplicationContext();
+            TaskScheduler.submit(SeekIndex.class, TaskScheduler.PRIORITY_INDEX, "seekIndex", () -> {
+                try {
+                    final long start = System.currentTimeMillis();
+                    final SeekIndex index = SeekIndexBuilder.build(appContext, uri);
+                    // Null only when interrupted, failed scan is stored as empty index
+                    if (index != null) {
+                        Utils.log("Seek index built in " + (System.currentTimeMillis() - start) + " ms, " + index.timesUs.length + " points");
+                        index.write(file);
+                    }
+                } finally {
+                    building.remove(key);
+                }
+            });
+        }
+        return null;
+    }
+
+    @Nullable
+    private static SeekIndex read(File file) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                return null;
+            final int count = input.readInt();
+            final long[] timesUs = new long[count];
+            final long[] positions = new long[count];
+            for (int i = 0; i < count; i++) {
+                timesUs[i] = input.readLong();
+                positions[i] = input.readLong();
+            }
+            return new SeekIndex(timesUs, positions);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            return null;
+        }
+    }
+
+    private void write(File file) {
+        final File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs())
+            return;
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(timesUs.length);
+            for (int i = 0; i < timesUs.length; i++) {
+                output.writeLong(timesUs[i]);
+                output.writeLong(positions[i]);
+            }
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            prune(dir);
+        } else {
+            tmp.delete();
+        }
+    }
+
+    // Least recently used media are dropped
+    private static void prune(File dir) {
+        final File[] files = dir.listFiles((file, name) -> name.endsWith(".idx"));
+        if (files == null || files.length <= MAX_FILES)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    static final class IndexSeekMap implements SeekMap {
+        private final SeekIndex index;
+        private final long durationUs;
+
+        IndexSeekMap(SeekIndex index, long durationUs) {
+            this.index = index;
+            this.durationUs = durationUs != C.TIME_UNSET ? durationUs : index.timesUs[index.timesUs.length - 1];
+        }
+
+        @Override
+        public boolean isSeekable() {
+            return true;
+        }
+
+        @Override
+        public long getDurationUs() {
+            return durationUs;
+        }
+
+        @Override
+        public SeekPoints getSeekPoints(long timeUs) {
+            final long[] timesUs = index.timesUs;
+            final long[] positions = index.positions;
+            final int i = Util.binarySearchFloor(timesUs, timeUs, true, true);
+            final SeekPoint first = new SeekPoint(timesUs[i], positions[i]);
+            if (timesUs[i] == timeUs || i == timesUs.length - 1)
+                return new SeekPoints(first);
+            return new SeekPoints(first, new SeekPoint(timesUs[i + 1], positions[i + 1]));
+        }
+    }
+}
@@ -0,0 +1,658 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Util;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Scans container structure (headers only, payload is skipped) for the seek index
+final class SeekIndexBuilder {
+
+    // Matroska element ids
+    private static final int ID_EBML = 0x1A45DFA3;
+    private static final int ID_SEGMENT = 0x18538067;
+    private static final int ID_SEEK_HEAD = 0x114D9B74;
+    private static final int ID_SEEK = 0x4DBB;
+    private static final int ID_SEEK_ID = 0x53AB;
+    private static final int ID_INFO = 0x1549A966;
+    private static final int ID_TIMECODE_SCALE = 0x2AD7B1;
+    private static final int ID_TRACKS = 0x1654AE6B;
+    private static final int ID_TRACK_ENTRY = 0xAE;
+    private static final int ID_TRACK_NUMBER = 0xD7;
+    private static final int ID_TRACK_TYPE = 0x83;
+    private static final int ID_CUES = 0x1C53BB6B;
+    private static final int ID_CHAPTERS = 0x1043A770;
+    private static final int ID_TAGS = 0x1254C367;
+    private static final int ID_ATTACHMENTS = 0x1941A469;
+    private static final int ID_CLUSTER = 0x1F43B675;
+    private static final int ID_TIMECODE = 0xE7;
+    private static final int ID_SIMPLE_BLOCK = 0xA3;
+    private static final int ID_BLOCK_GROUP = 0xA0;
+    private static final int ID_BLOCK = 0xA1;
+    private static final int ID_REFERENCE_BLOCK = 0xFB;
+    private static final int TRACK_TYPE_VIDEO = 1;
+
+    // MP4 box types
+    private static final int TYPE_FTYP = 0x66747970;
+    private static final int TYPE_MOOV = 0x6D6F6F76;
+    private static final int TYPE_MVEX = 0x6D766578;
+    private static final int TYPE_TREX = 0x74726578;
+    private static final int TYPE_TRAK = 0x7472616B;
+    private static final int TYPE_TKHD = 0x746B6864;
+    private static final int TYPE_MDIA = 0x6D646961;
+    private static final int TYPE_MDHD = 0x6D646864;
+    private static final int TYPE_HDLR = 0x68646C72;
+    private static final int TYPE_VIDE = 0x76696465;
+    private static final int TYPE_SIDX = 0x73696478;
+    private static final int TYPE_MOOF = 0x6D6F6F66;
+    private static final int TYPE_TRAF = 0x74726166;
+    private static final int TYPE_TFHD = 0x74666864;
+    private static final int TYPE_TFDT = 0x74666474;
+    private static final int TYPE_TRUN = 0x7472756E;
+
+    // tfhd and trun flags
+    private static final int TFHD_BASE_DATA_OFFSET = 0x01;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x02;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x08;
+    private static final int TFHD_DEFAULT_SAMPLE_SIZE = 0x10;
+    private static final int TFHD_DEFAULT_SAMPLE_FLAGS = 0x20;
+    private static final int TRUN_DATA_OFFSET = 0x01;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x04;
+    private static final int TRUN_SAMPLE_DURATION = 0x100;
+    private static final int TRUN_SAMPLE_SIZE = 0x200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x400;
+    private static final long SAMPLE_IS_NON_SYNC = 0x10000;
+
+    // Empty index, the file either seeks on its own or can't be indexed
+    private static final SeekIndex NONE = new SeekIndex(new long[0], new long[0]);
+
+    private final Reader reader;
+    private long[] timesUs = new long[256];
+    private long[] positions = new long[256];
+    private int count;
+
+    private SeekIndexBuilder(Reader reader) {
+        this.reader = reader;
+    }
+
+    // Null only when interrupted, files that can't be indexed get an empty index so they're not scanned again
+    @Nullable
+    static SeekIndex build(Context context, Uri uri) {
+        try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+             FileInputStream inputStream = new FileInputStream(descriptor.getFileDescriptor())) {
+            final SeekIndexBuilder builder = new SeekIndexBuilder(new Reader(inputStream.getChannel()));
+            if (builder.reader.readUnsigned(4) == ID_EBML) {
+                return builder.buildMatroska();
+            }
+            builder.reader.seek(4);
+            if (builder.reader.readUnsigned(4) == TYPE_FTYP) {
+                return builder.buildMp4();
+            }
+            return NONE;
+        } catch (IOException | RuntimeException e) {
+            Log.w(Utils.TAG, e);
+            return NONE;
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    private void add(long timeUs, long position) {
+        if (count > 0 && timeUs <= timesUs[count - 1])
+            return;
+        if (count == timesUs.length) {
+            timesUs = Arrays.copyOf(timesUs, count * 2);
+            positions = Arrays.copyOf(positions, count * 2);
+        }
+        timesUs[count] = timeUs;
+        positions[count] = position;
+        count++;
+    }
+
+    private SeekIndex result() {
+        if (count == 0)
+            return NONE;
+        return new SeekIndex(Arrays.copyOf(timesUs, count), Arrays.copyOf(positions, count));
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+    }
+
+    private SeekIndex buildMatroska() throws IOException, InterruptedException {
+        reader.seek(0);
+        reader.readId();
+        long size = reader.readSize();
+        reader.skip(size);
+        if (reader.readId() != ID_SEGMENT)
+            return NONE;
+        size = reader.readSize();
+        final long segmentEnd = size < 0 ? reader.size : reader.position + size;
+
+        long timecodeScale = 1_000_000;
+        long videoTrack = -1;
+        boolean clusterSeen = false;
+        while (reader.position < segmentEnd && reader.position < reader.size) {
+            checkInterrupted();
+            final long elementStart = reader.position;
+            final int id = reader.readId();
+            size = reader.readSize();
+            if (id == ID_CLUSTER) {
+                if (videoTrack < 0)
+                    return NONE;
+                clusterSeen = true;
+                final long timecode = scanCluster(size < 0 ? -1 : reader.position + size, videoTrack);
+                if (timecode != C.TIME_UNSET) {
+                    add(Util.scaleLargeTimestamp(timecode, timecodeScale, 1000), elementStart);
+                }
+                continue;
+            }
+            if (size < 0)
+                return NONE;
+            final long end = reader.position + size;
+            switch (id) {
+                case ID_SEEK_HEAD:
+                    // Extractor reads Cues referenced from SeekHead even when they're at the end of the file
+                    if (seekHeadHasCues(end))
+                        return NONE;
+                    break;
+                case ID_CUES:
+                    // Cues after clusters without SeekHead entry aren't found by the extractor
+                    if (!clusterSeen)
+                        return NONE;
+                    break;
+                case ID_INFO:
+                    while (reader.position < end) {
+                        final int childId = reader.readId();
+                        final long childSize = reader.readSize();
+                        if (childId == ID_TIMECODE_SCALE) {
+                            timecodeScale = reader.readUnsigned((int) childSize);
+                        } else {
+                            reader.skip(childSize);
+                        }
+                    }
+                    break;
+                case ID_TRACKS:
+                    while (reader.position < end) {
+                        final int childId = reader.readId();
+                        final long childSize = reader.readSize();
+                        final long childEnd = reader.position + childSize;
+                        if (childId != ID_TRACK_ENTRY) {
+                            reader.skip(childSize);
+                            continue;
+                        }
+                        long number = -1;
+                        long type = -1;
+                        while (reader.position < childEnd) {
+                            final int entryId = reader.readId();
+                            final long entrySize = reader.readSize();
+                            if (entryId == ID_TRACK_NUMBER) {
+                                number = reader.readUnsigned((int) entrySize);
+                            } else if (entryId == ID_TRACK_TYPE) {
+                                type = reader.readUnsigned((int) entrySize);
+                            } else {
+                                reader.skip(entrySize);
+                            }
+                        }
+                        if (type == TRACK_TYPE_VIDEO && videoTrack < 0) {
+                            videoTrack = number;
+                        }
+                    }
+                    break;
+            }
+            reader.seek(end);
+        }
+        return result();
+    }
+
+    private boolean seekHeadHasCues(long end) throws IOException {
+        while (reader.position < end) {
+            final int id = reader.readId();
+            final long size = reader.readSize();
+            final long seekEnd = reader.position + size;
+            if (id == ID_SEEK) {
+                while (reader.position < seekEnd) {
+                    final int childId = reader.readId();
+                    final long childSize = reader.readSize();
+                    if (childId == ID_SEEK_ID && childSize <= 4) {
+                        if (reader.readUnsigned((int) childSize) == ID_CUES)
+                            return true;
+                    } else {
+                        reader.skip(childSize);
+                    }
+                }
+            }
+            reader.seek(seekEnd);
+        }
+        return false;
+    }
+
+    // Timecode (in timecode scale units) of cluster starting with key frame of the video track, TIME_UNSET otherwise.
+    // Leaves reader at the element following the cluster, end is -1 for cluster of unknown size.
+    private long scanCluster(long end, long videoTrack) throws IOException, InterruptedException {
+        long clusterTimecode = C.TIME_UNSET;
+        long timecode = C.TIME_UNSET;
+        boolean found = false;
+        while (end < 0 ? reader.position < reader.size : reader.position < end) {
+            final long childStart = reader.position;
+            final int id;
+            final long size;
+            try {
+                id = reader.readId();
+                size = reader.readSize();
+            } catch (IOException e) {
+                if (end >= 0)
+                    throw e;
+                findCluster(childStart + 1);
+                return timecode;
+            }
+            if (end < 0 && isTopLevel(id)) {
+                reader.seek(childStart);
+                return timecode;
+            }
+            if (size < 0) {
+                if (end >= 0) {
+                    reader.seek(end);
+                } else {
+                    findCluster(childStart + 1);
+                }
+                return timecode;
+            }
+            final long childEnd = reader.position + size;
+            if (!found) {
+                if (id == ID_TIMECODE) {
+                    clusterTimecode = reader.readUnsigned((int) size);
+                } else if (id == ID_SIMPLE_BLOCK) {
+                    final long track = reader.readVarint();
+                    final int relativeTimecode = (short) reader.readUnsigned(2);
+                    final int flags = reader.readByte();
+                    if (track == videoTrack) {
+                        found = true;
+                        if (clusterTimecode != C.TIME_UNSET && (flags & 0x80) != 0)
+                            timecode = clusterTimecode + relativeTimecode;
+                    }
+                } else if (id == ID_BLOCK_GROUP) {
+                    long track = -1;
+                    int relativeTimecode = 0;
+                    boolean reference = false;
+                    while (reader.position < childEnd) {
+                        final int groupId = reader.readId();
+                        final long groupSize = reader.readSize();
+                        final long groupEnd = reader.position + groupSize;
+                        if (groupId == ID_BLOCK) {
+                            track = reader.readVarint();
+                            relativeTimecode = (short) reader.readUnsigned(2);
+                        } else if (groupId == ID_REFERENCE_BLOCK) {
+                            reference = true;
+                        }
+                        reader.seek(groupEnd);
+                    }
+                    if (track == videoTrack) {
+                        found = true;
+                        if (clusterTimecode != C.TIME_UNSET && !reference)
+                            timecode = clusterTimecode + relativeTimecode;
+                    }
+                }
+                if (found && end >= 0)
+                    break;
+            }
+            // Blocks of unknown size cluster are walked to find where the next element starts
+            reader.seek(childEnd);
+        }
+        if (end >= 0)
+            reader.seek(end);
+        return timecode;
+    }
+
+    private static boolean isTopLevel(int id) {
+        switch (id) {
+            case ID_CLUSTER:
+            case ID_CUES:
+            case ID_SEEK_HEAD:
+            case ID_INFO:
+            case ID_TRACKS:
+            case ID_CHAPTERS:
+            case ID_TAGS:
+            case ID_ATTACHMENTS:
+            case ID_EBML:
+            case ID_SEGMENT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Moves to the next Cluster id from position on (end of file when there is none), used when structure of
+    // unknown size cluster can't be followed
+    private void findCluster(long position) throws IOException, InterruptedException {
+        reader.seek(position);
+        int window = 0;
+        while (reader.position < reader.size) {
+            if ((reader.position & 0xFFFFF) == 0)
+                checkInterrupted();
+            window = (window << 8) | reader.readByte();
+            if (window == ID_CLUSTER && reader.position - 4 >= position) {
+                reader.seek(reader.position - 4);
+                return;
+            }
+        }
+    }
+
+    private SeekIndex buildMp4() throws IOException, InterruptedException {
+        reader.seek(0);
+        boolean fragmented = false;
+        long videoTrack = -1;
+        long timescale = 0;
+        long trexSampleFlags = 0;
+        while (reader.position < reader.size) {
+            checkInterrupted();
+            final long boxStart = reader.position;
+            final long end = readBoxEnd();
+            final int type = (int) reader.readUnsigned(4);
+            if (end < 0)
+                return NONE;
+            switch (type) {
+                case TYPE_SIDX:
+                    return NONE;
+                case TYPE_MOOV:
+                    skipLargeSize(boxStart);
+                    long[] trex = new long[0];
+                    while (reader.position < end) {
+                        final long childStart = reader.position;
+                        final long childEnd = readBoxEnd();
+                        final int childType = (int) reader.readUnsigned(4);
+                        if (childEnd < 0)
+                            return NONE;
+                        skipLargeSize(childStart);
+                        if (childType == TYPE_MVEX) {
+                            fragmented = true;
+                            trex = readTrex(childEnd);
+                        } else if (childType == TYPE_TRAK && videoTrack < 0) {
+                            final long[] track = readTrack(childEnd);
+                            if (track != null) {
+                                videoTrack = track[0];
+                                timescale = track[1];
+                            }
+                        }
+                        reader.seek(childEnd);
+                    }
+                    if (!fragmented || videoTrack < 0 || timescale <= 0)
+                        return NONE;
+                    for (int i = 0; i < trex.length; i += 2) {
+                        if (trex[i] == videoTrack)
+                            trexSampleFlags = trex[i + 1];
+                    }
+                    break;
+                case TYPE_MOOF:
+                    // Fragments before moov can't be indexed without knowing the video track
+                    if (videoTrack < 0)
+                        return NONE;
+                    skipLargeSize(boxStart);
+                    final long time = readFragmentTime(end, videoTrack, trexSampleFlags);
+                    if (time >= 0) {
+                        add(Util.scaleLargeTimestamp(time, C.MICROS_PER_SECOND, timescale), boxStart);
+                    }
+                    break;
+            }
+            reader.seek(end);
+        }
+        return result();
+    }
+
+    // Box end position from its size (box type follows), -1 when invalid
+    private long readBoxEnd() throws IOException {
+        final long start = reader.position;
+        long size = reader.readUnsigned(4);
+        if (size == 1) {
+            reader.seek(start + 8);
+            size = reader.readUnsigned(8);
+            reader.seek(start + 4);
+        } else if (size == 0) {
+            size = reader.size - start;
+        }
+        if (size < 8)
+            return -1;
+        return start + size;
+    }
+
+    // Moves to box payload, past 64-bit size when present
+    private void skipLargeSize(long boxStart) throws IOException {
+        reader.seek(boxStart);
+        if (reader.readUnsigned(4) == 1) {
+            reader.seek(boxStart + 16);
+        } else {
+            reader.seek(boxStart + 8);
+        }
+    }
+
+    // [track id, default sample flags] pairs of trex boxes
+    private long[] readTrex(long end) throws IOException {
+        long[] trex = new long[0];
+        while (reader.position < end) {
+            final long boxStart = reader.position;
+            final long boxEnd = readBoxEnd();
+            final int type = (int) reader.readUnsigned(4);
+            if (boxEnd < 0)
+                break;
+            skipLargeSize(boxStart);
+            if (type == TYPE_TREX) {
+                reader.skip(4);
+                final long trackId = reader.readUnsigned(4);
+                reader.skip(12);
+                trex = Arrays.copyOf(trex, trex.length + 2);
+                trex[trex.length - 2] = trackId;
+                trex[trex.length - 1] = reader.readUnsigned(4);
+            }
+            reader.seek(boxEnd);
+        }
+        return trex;
+    }
+
+    // [track id, timescale] of video track, null for other tracks
+    @Nullable
+    private long[] readTrack(long end) throws IOException {
+        long trackId = -1;
+        long timescale = 0;
+        boolean video = false;
+        while (reader.position < end) {
+            final long boxStart = reader.position;
+            final long boxEnd = readBoxEnd();
+            final int type = (int) reader.readUnsigned(4);
+            if (boxEnd < 0)
+                return null;
+            skipLargeSize(boxStart);
+            if (type == TYPE_TKHD) {
+                final int version = reader.readByte();
+                reader.skip(3 + (version == 1 ? 16 : 8));
+                trackId = reader.readUnsigned(4);
+            } else if (type == TYPE_MDIA) {
+                while (reader.position < boxEnd) {
+                    final long childStart = reader.position;
+                    final long childEnd = readBoxEnd();
+                    final int childType = (int) reader.readUnsigned(4);
+                    if (childEnd < 0)
+                        return null;
+                    skipLargeSize(childStart);
+                    if (childType == TYPE_MDHD) {
+                        final int version = reader.readByte();
+                        reader.skip(3 + (version == 1 ? 16 : 8));
+                        timescale = reader.readUnsigned(4);
+                    } else if (childType == TYPE_HDLR) {
+                        reader.skip(8);
+                        video = reader.readUnsigned(4) == TYPE_VIDE;
+                    }
+                    reader.seek(childEnd);
+                }
+            }
+            reader.seek(boxEnd);
+        }
+        return video ? new long[] {trackId, timescale} : null;
+    }
+
+    // Base media decode time of the video track in the fragment when its first sample is a sync sample, -1 otherwise
+    private long readFragmentTime(long end, long videoTrack, long trexSampleFlags) throws IOException {
+        while (reader.position < end) {
+            final long boxStart = reader.position;
+            final long boxEnd = readBoxEnd();
+            final int type = (int) reader.readUnsigned(4);
+            if (boxEnd < 0)
+                return -1;
+            if (type == TYPE_TRAF) {
+                skipLargeSize(boxStart);
+                long trackId = -1;
+                long time = -1;
+                long defaultSampleFlags = trexSampleFlags;
+                long firstSampleFlags = -1;
+                while (reader.position < boxEnd) {
+                    final long childStart = reader.position;
+                    final long childEnd = readBoxEnd();
+                    final int childType = (int) reader.readUnsigned(4);
+                    if (childEnd < 0)
+                        return -1;
+                    skipLargeSize(childStart);
+                    if (childType == TYPE_TFHD) {
+                        final long flags = reader.readUnsigned(4) & 0xFFFFFF;
+                        trackId = reader.readUnsigned(4);
+                        if (trackId != videoTrack)
+                            break;
+                        reader.skip(((flags & TFHD_BASE_DATA_OFFSET) != 0 ? 8 : 0)
+                                + ((flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0 ? 4 : 0)
+                                + ((flags & TFHD_DEFAULT_SAMPLE_DURATION) != 0 ? 4 : 0)
+                                + ((flags & TFHD_DEFAULT_SAMPLE_SIZE) != 0 ? 4 : 0));
+                        if ((flags & TFHD_DEFAULT_SAMPLE_FLAGS) != 0)
+                            defaultSampleFlags = reader.readUnsigned(4);
+                    } else if (childType == TYPE_TFDT) {
+                        final int version = reader.readByte();
+                        reader.skip(3);
+                        time = reader.readUnsigned(version == 1 ? 8 : 4);
+                    } else if (childType == TYPE_TRUN && firstSampleFlags < 0) {
+                        final long flags = reader.readUnsigned(4) & 0xFFFFFF;
+                        final long sampleCount = reader.readUnsigned(4);
+                        if (sampleCount == 0) {
+                            reader.seek(childEnd);
+                            continue;
+                        }
+                        reader.skip((flags & TRUN_DATA_OFFSET) != 0 ? 4 : 0);
+                        if ((flags & TRUN_FIRST_SAMPLE_FLAGS) != 0) {
+                            firstSampleFlags = reader.readUnsigned(4);
+                        } else if ((flags & TRUN_SAMPLE_FLAGS) != 0) {
+                            reader.skip(((flags & TRUN_SAMPLE_DURATION) != 0 ? 4 : 0)
+                                    + ((flags & TRUN_SAMPLE_SIZE) != 0 ? 4 : 0));
+                            firstSampleFlags = reader.readUnsigned(4);
+                        } else {
+                            firstSampleFlags = defaultSampleFlags;
+                        }
+                    }
+                    reader.seek(childEnd);
+                }
+                if (trackId == videoTrack) {
+                    if (firstSampleFlags < 0)
+                        firstSampleFlags = defaultSampleFlags;
+                    return (firstSampleFlags & SAMPLE_IS_NON_SYNC) == 0 ? time : -1;
+                }
+            }
+            reader.seek(boxEnd);
+        }
+        return -1;
+    }
+
+
+    // Random access over file channel with read-ahead buffer
+    private static final class Reader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+        private long bufferStart;
+        final long size;
+        long position;
+
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            size = channel.size();
+            buffer.limit(0);
+        }
+
+        void seek(long position) {
+            this.position = position;
+        }
+
+        void skip(long bytes) {
+            position += bytes;
+        }
+
+        int readByte() throws IOException {
+            if (position < bufferStart || position >= bufferStart + buffer.limit()) {
+                buffer.clear();
+                bufferStart = position;
+                while (buffer.hasRemaining() && channel.read(buffer, bufferStart + buffer.position()) > 0) {
+                    // Fill the buffer
+                }
+                buffer.flip();
+                if (buffer.limit() == 0)
+                    throw new EOFException();
+            }
+            return buffer.get((int) (position++ - bufferStart)) & 0xFF;
+        }
+
+        long readUnsigned(int bytes) throws IOException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        // EBML element id, length marker kept
+        int readId() throws IOException {
+            final int first = readByte();
+            final int length = Integer.numberOfLeadingZeros(first) - 23;
+            if (length > 4)
+                throw new IOException("Invalid element id");
+            int id = first;
+            for (int i = 1; i < length; i++) {
+                id = (id << 8) | readByte();
+            }
+            return id;
+        }
+
+        // EBML variable size integer, -1 for unknown size
+        long readSize() throws IOException {
+            final int first = readByte();
+            final int length = Integer.numberOfLeadingZeros(first) - 23;
+            if (length > 8)
+                throw new IOException("Invalid element size");
+            long value = first & (0xFF >> length);
+            boolean unknown = value == (0xFF >> length);
+            for (int i = 1; i < length; i++) {
+                final int b = readByte();
+                unknown &= b == 0xFF;
+                value = (value << 8) | b;
+            }
+            return unknown ? -1 : value;
+        }
+
+        // EBML variable size integer without the unknown size value (block track number)
+        long readVarint() throws IOException {
+            final int first = readByte();
+            final int length = Integer.numberOfLeadingZeros(first) - 23;
+            if (length > 8)
+                throw new IOException("Invalid variable size integer");
+            long value = first & (0xFF >> length);
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.media3.extractor.Extractor;
+import androidx.media3.extractor.ExtractorInput;
+import androidx.media3.extractor.ExtractorOutput;
+import androidx.media3.extractor.ExtractorsFactory;
+import androidx.media3.extractor.PositionHolder;
+import androidx.media3.extractor.SeekMap;
+import androidx.media3.extractor.TrackOutput;
+import androidx.media3.extractor.text.SubtitleParser;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+// Extractors of local media get SeekMap from SeekIndex when they can't seek on their own
+class SeekIndexExtractorsFactory implements ExtractorsFactory {
+
+    private final Context context;
+    private final ExtractorsFactory extractorsFactory;
+
+    SeekIndexExtractorsFactory(Context context, ExtractorsFactory extractorsFactory) {
+        this.context = context.getApplicationContext();
+        this.extractorsFactory = extractorsFactory;
+    }
+
+    @NonNull
+    @Override
+    public Extractor[] createExtractors() {
+        return extractorsFactory.createExtractors();
+    }
+
+    // Called on loading thread
+    @NonNull
+    @Override
+    public Extractor[] createExtractors(@NonNull Uri uri, @NonNull Map<String, List<String>> responseHeaders) {
+        final Extractor[] extractors = extractorsFactory.createExtractors(uri, responseHeaders);
+        final String scheme = uri.getScheme();
+        if (!ContentResolver.SCHEME_CONTENT.equals(scheme) && !ContentResolver.SCHEME_FILE.equals(scheme))
+            return extractors;
+        final SeekIndex index = SeekIndex.get(context, uri);
+        if (index == null || index.isEmpty())
+            return extractors;
+        for (int i = 0; i < extractors.length; i++) {
+            extractors[i] = new IndexedExtractor(extractors[i], index);
+        }
+        return extractors;
+    }
+
+    @NonNull
+    @Override
+    public ExtractorsFactory setSubtitleParserFactory(@NonNull SubtitleParser.Factory subtitleParserFactory) {
+        extractorsFactory.setSubtitleParserFactory(subtitleParserFactory);
+        return this;
+    }
+
+    private static final class IndexedExtractor implements Extractor {
+        private final Extractor extractor;
+        private final SeekIndex index;
+
+        IndexedExtractor(Extractor extractor, SeekIndex index) {
+            this.extractor = extractor;
+            this.index = index;
+        }
+
+        @Override
+        public boolean sniff(@NonNull ExtractorInput input) throws IOException {
+            return extractor.sniff(input);
+        }
+
+        @Override
+        public void init(@NonNull ExtractorOutput output) {
+            extractor.init(new IndexedOutput(output, index));
+        }
+
+        @Override
+        public int read(@NonNull ExtractorInput input, @NonNull PositionHolder seekPosition) throws IOException {
+            return extractor.read(input, seekPosition);
+        }
+
+        @Override
+        public void seek(long position, long timeUs) {
+            extractor.seek(position, timeUs);
+        }
+
+        @Override
+        public void release() {
+            extractor.release();
+        }
+
+        @NonNull
+        @Override
+        public Extractor getUnderlyingImplementation() {
+            return extractor.getUnderlyingImplementation();
+        }
+    }
+
+    private static final class IndexedOutput implements ExtractorOutput {
+        private final ExtractorOutput output;
+        private final SeekIndex index;
+
+        IndexedOutput(ExtractorOutput output, SeekIndex index) {
+            this.output = output;
+            this.index = index;
+        }
+
+        @NonNull
+        @Override
+        public TrackOutput track(int id, int type) {
+            return output.track(id, type);
+        }
+
+        @Override
+        public void endTracks() {
+            output.endTracks();
+        }
+
+        @Override
+        public void seekMap(@NonNull SeekMap seekMap) {
+            if (!seekMap.isSeekable()) {
+                seekMap = new SeekIndex.IndexSeekMap(index, seekMap.getDurationUs());
+            }
+            output.seekMap(seekMap);
+        }
+    }
+}
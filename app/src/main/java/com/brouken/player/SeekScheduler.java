@@ -0,0 +1,165 @@
+package com.brouken.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.Player;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.SeekParameters;
+
+// Seeks from gestures (swipe, double tap, time bar scrubbing) go through here. Only the latest target is kept
+// while a seek is in flight and sent once the previous one has rendered, so decoder isn't flushed for frames
+// nobody would see. Sync mode follows direction and distance, gesture end brings one exact seek.
+public class SeekScheduler implements Player.Listener {
+
+    // Farther than this any key frame will do
+    private static final long FAR_MS = 60_000;
+    // Fallback when neither frame nor state change follows (audio only, seek to the same position)
+    private static final long RENDER_TIMEOUT_MS = 1000;
+
+    private final ExoPlayer player;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable timeout = this::onSeekDone;
+
+    private long target = C.TIME_UNSET;
+    private boolean exact;
+    private boolean issuing;
+    private boolean seeking;
+    private long seekStartMs;
+    private long lastPosition = C.TIME_UNSET;
+    private boolean lastExact;
+
+    private int requested;
+    private int issued;
+    private int rendered;
+    private long latencyTotalMs;
+    private long latencyMaxMs;
+
+    SeekScheduler(ExoPlayer player) {
+        this.player = player;
+        player.addListener(this);
+    }
+
+    // Position the gesture is heading to, including target still waiting to be sent
+    public long getPosition() {
+        if (target != C.TIME_UNSET)
+            return target;
+        return player.getCurrentPosition();
+    }
+
+    public void seek(long position) {
+        request(position, false);
+    }
+
+    // Gesture end: exact seek to the last target
+    public void finish() {
+        if (target != C.TIME_UNSET) {
+            exact = true;
+            if (!seeking)
+                issue();
+        } else if (lastPosition != C.TIME_UNSET && !lastExact) {
+            request(lastPosition, true);
+        }
+    }
+
+    public void finish(long position) {
+        request(position, true);
+    }
+
+    private void request(long position, boolean exact) {
+        requested++;
+        target = Math.max(0, position);
+        this.exact = exact;
+        if (!seeking)
+            issue();
+    }
+
+    private void issue() {
+        final long position = target;
+        target = C.TIME_UNSET;
+        if (exact && lastExact && position == lastPosition)
+            return;
+
+        final SeekParameters seekParameters;
+        if (exact) {
+            seekParameters = SeekParameters.EXACT;
+        } else {
+            final long distance = position - player.getCurrentPosition();
+            if (Math.abs(distance) >= FAR_MS) {
+                seekParameters = SeekParameters.CLOSEST_SYNC;
+            } else if (distance < 0) {
+                seekParameters = SeekParameters.PREVIOUS_SYNC;
+            } else {
+                seekParameters = SeekParameters.NEXT_SYNC;
+            }
+        }
+        player.setSeekParameters(seekParameters);
+        issuing = true;
+        player.seekTo(position);
+        issuing = false;
+        issued++;
+        onSeekStarted(position, exact);
+    }
+
+    private void onSeekStarted(long position, boolean exact) {
+        seeking = true;
+        seekStartMs = SystemClock.elapsedRealtime();
+        lastPosition = position;
+        lastExact = exact;
+        handler.removeCallbacks(timeout);
+        handler.postDelayed(timeout, RENDER_TIMEOUT_MS);
+    }
+
+    private void onSeekDone() {
+        if (!seeking)
+            return;
+        seeking = false;
+        handler.removeCallbacks(timeout);
+        final long latencyMs = SystemClock.elapsedRealtime() - seekStartMs;
+        rendered++;
+        latencyTotalMs += latencyMs;
+        latencyMaxMs = Math.max(latencyMaxMs, latencyMs);
+
+        if (target != C.TIME_UNSET) {
+            issue();
+        } else {
+            // Other seeks (resume, time bar release) are exact as by default
+            player.setSeekParameters(SeekParameters.DEFAULT);
+        }
+    }
+
+    @Override
+    public void onPositionDiscontinuity(@NonNull Player.PositionInfo oldPosition, @NonNull Player.PositionInfo newPosition, int reason) {
+        // Seek by someone else (e.g. time bar on release), waited for like own ones
+        if (reason == Player.DISCONTINUITY_REASON_SEEK && !issuing) {
+            onSeekStarted(newPosition.positionMs, SeekParameters.EXACT.equals(player.getSeekParameters()));
+        }
+    }
+
+    @Override
+    public void onRenderedFirstFrame() {
+        onSeekDone();
+    }
+
+    @Override
+    public void onPlaybackStateChanged(int playbackState) {
+        if (playbackState == Player.STATE_READY || playbackState == Player.STATE_ENDED || playbackState == Player.STATE_IDLE) {
+            onSeekDone();
+        }
+    }
+
+    void release() {
+        handler.removeCallbacks(timeout);
+        player.removeListener(this);
+    }
+
+    void appendTo(StringBuilder text, String separator) {
+        text.append(separator).append("Seek requests: ").append(requested).append(", issued ").append(issued);
+        if (rendered > 0) {
+            text.append(" (").append(latencyTotalMs / rendered).append(" ms avg, ").append(latencyMaxMs).append(" ms max to render)");
+        }
+    }
+}
@@ -9,6 +9,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.Settings;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.View;
 import android.widget.LinearLayout;
@@ -168,6 +169,45 @@ public class SettingsActivity extends AppCompatActivity {
                 listPreferenceLanguageAudio.setEntryValues(entries.keySet().toArray(new String[0]));
             }
 
+            ListPreference listPreferencePreloadNext = findPreference("preloadNext");
+            if (listPreferencePreloadNext != null) {
+                CharSequence[] values = listPreferencePreloadNext.getEntryValues();
+                String[] entries = new String[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    int seconds = Integer.parseInt(values[i].toString());
+                    if (seconds == 0) {
+                        entries[i] = getString(R.string.pref_off);
+                    } else if (seconds < 60) {
+                        entries[i] = getString(R.string.pref_preload_next_seconds, seconds);
+                    } else {
+                        entries[i] = getString(R.string.pref_preload_next_minutes, seconds / 60);
+                    }
+                }
+                listPreferencePreloadNext.setEntries(entries);
+            }
+
+            ListPreference listPreferenceMediaCache = findPreference("mediaCache");
+            if (listPreferenceMediaCache != null) {
+                CharSequence[] values = listPreferenceMediaCache.getEntryValues();
+                String[] entries = new String[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    long megabytes = Long.parseLong(values[i].toString());
+                    if (megabytes == 0) {
+                        entries[i] = getString(R.string.pref_off);
+                    } else {
+                        entries[i] = Formatter.formatShortFileSize(getContext(), megabytes * 1024 * 1024);
+                    }
+                }
+                listPreferenceMediaCache.setEntries(entries);
+                listPreferenceMediaCache.setSummaryProvider(preference -> {
+                    ListPreference listPreference = (ListPreference) preference;
+                    if ("0".equals(listPreference.getValue())) {
+                        return listPreference.getEntry();
+                    }
+                    return listPreference.getEntry() + "\n" + MediaCache.getInstance(getContext()).getSummary();
+                });
+            }
+
             customSubtitleFontSwitch = findPreference(Prefs.PREF_KEY_SUBTITLE_CUSTOM_FONT_ENABLED);
             customSubtitleFontChoose = findPreference(PREF_KEY_CUSTOM_SUBTITLE_FONT_CHOOSE);
 
@@ -0,0 +1,149 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Response;
+
+// Converted subtitles in cache/subtitles/<key hash>/<original file name>, the key is the source uri
+// plus its size/mtime (or HTTP validators) so a changed source gets a new entry.
+// Original file name is kept for mime and language detection. Least recently used entries are evicted
+// once the total size goes over budget.
+class SubtitleCache {
+
+    private static final String DIR_NAME = "subtitles";
+    private static final long MAX_SIZE = 20 * 1024 * 1024;
+
+    private static SubtitleCache instance;
+
+    private final File dir;
+
+    static synchronized SubtitleCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new SubtitleCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SubtitleCache(Context context) {
+        dir = new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    // Key for local (file or document) uri, null when size and mtime are unknown
+    @Nullable
+    static String getKey(Context context, Uri uri) {
+        final DocumentEntry entry = DocumentLister.query(context, uri);
+        if (entry == null || entry.lastModified <= 0)
+            return null;
+        return uri + "\n" + entry.size + "/" + entry.lastModified;
+    }
+
+    // Key for HTTP response, null when server provides no validator
+    @Nullable
+    static String getKey(Uri uri, Response response) {
+        final String etag = response.header("ETag");
+        if (etag != null)
+            return uri + "\n" + etag;
+        final String lastModified = response.header("Last-Modified");
+        if (lastModified != null)
+            return uri + "\n" + response.header("Content-Length") + "/" + lastModified;
+        return null;
+    }
+
+    @Nullable
+    synchronized File get(@Nullable String key, String fileName) {
+        if (key == null)
+            return null;
+        final File entryDir = getEntryDir(key);
+        final File file = new File(entryDir, fileName);
+        if (!file.exists())
+            return null;
+        entryDir.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    // Target for a new conversion, uncacheable sources (without key) share one slot per uri
+    synchronized File newFile(@Nullable String key, Uri uri, String fileName) throws IOException {
+        final File entryDir = getEntryDir(key != null ? key : uri.toString());
+        if (!entryDir.exists() && !entryDir.mkdirs())
+            throw new IOException("Couldn't create subtitles cache directory");
+        return new File(entryDir, fileName);
+    }
+
+    // To be called once the file from newFile() is written
+    synchronized void commit(File file) {
+        final File entryDir = file.getParentFile();
+        if (entryDir != null)
+            entryDir.setLastModified(System.currentTimeMillis());
+        trim(entryDir);
+    }
+
+    // To be called when the file from newFile() ends up not written (source already UTF-8, failed conversion),
+    // so that no empty entry directories are left behind
+    synchronized void discard(File file) {
+        file.delete();
+        final File entryDir = file.getParentFile();
+        final String[] files = entryDir != null ? entryDir.list() : null;
+        if (files != null && files.length == 0)
+            entryDir.delete();
+    }
+
+    private File getEntryDir(String key) {
+        return new File(dir, Long.toHexString(Utils.hash(key)));
+    }
+
+    private void trim(@Nullable File keep) {
+        final File[] entryDirs = dir.listFiles();
+        if (entryDirs == null)
+            return;
+
+        final List<File> entries = new ArrayList<>(entryDirs.length);
+        long total = 0;
+        for (File entryDir : entryDirs) {
+            entries.add(entryDir);
+            total += getSize(entryDir);
+        }
+        if (total <= MAX_SIZE)
+            return;
+
+        Collections.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File entryDir : entries) {
+            if (total <= MAX_SIZE)
+                break;
+            if (entryDir.equals(keep))
+                continue;
+            total -= getSize(entryDir);
+            delete(entryDir);
+        }
+        Utils.log("Subtitle cache trimmed to " + total + " B");
+    }
+
+    private static long getSize(File file) {
+        if (!file.isDirectory())
+            return file.length();
+        long size = 0;
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                size += child.length();
+        }
+        return size;
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                child.delete();
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,190 @@
+package com.brouken.player;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Result of sidecar subtitle discovery per network media url: either the found subtitle
+// (with its validators and converted copy kept in SubtitleCache) or the fact that nothing was found.
+// Media url is stored without password (see MediaCache.getKey()).
+class SubtitleDiscoveryCache {
+
+    private static final String DIR_NAME = "discovery";
+    private static final long FOUND_TTL = 7 * 24 * 60 * 60 * 1000L;
+    private static final long MISSING_TTL = 24 * 60 * 60 * 1000L;
+    private static final int MAX_ENTRIES = 500;
+
+    private static SubtitleDiscoveryCache instance;
+
+    private final File dir;
+
+    static final class Entry {
+        @Nullable final Uri subtitleUri;
+        @Nullable final String etag;
+        @Nullable final String lastModified;
+        @Nullable final File file;
+        final long time;
+
+        Entry(@Nullable Uri subtitleUri, @Nullable String etag, @Nullable String lastModified, @Nullable File file, long time) {
+            this.subtitleUri = subtitleUri;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.time = time;
+        }
+
+        boolean isFound() {
+            return subtitleUri != null;
+        }
+    }
+
+    static synchronized SubtitleDiscoveryCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new SubtitleDiscoveryCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SubtitleDiscoveryCache(Context context) {
+        dir = new File(context.getCacheDir(), DIR_NAME);
+    }
+
+    // Reads from disk, not to be called on main thread
+    @Nullable
+    synchronized Entry get(Uri mediaUri) {
+        final String key = MediaCache.getKey(mediaUri);
+        final File file = getEntryFile(key);
+        if (!file.exists())
+            return null;
+        try (InputStream inputStream = new FileInputStream(file)) {
+            final byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = inputStream.read(data, offset, data.length - offset)) != -1)
+                offset += read;
+            final JSONObject json = new JSONObject(new String(data, 0, offset, StandardCharsets.UTF_8));
+            if (!key.equals(json.optString("media")))
+                return null;
+            final long time = json.getLong("time");
+            final String subtitle = json.optString("subtitle", null);
+            if (isExpired(time, subtitle != null)) {
+                file.delete();
+                return null;
+            }
+            if (subtitle == null)
+                return new Entry(null, null, null, null, time);
+            // Copy may have been evicted from SubtitleCache
+            final File subtitleFile = new File(json.getString("file"));
+            if (!subtitleFile.exists()) {
+                file.delete();
+                return null;
+            }
+            return new Entry(Uri.parse(subtitle), json.optString("etag", null), json.optString("lastModified", null), subtitleFile, time);
+        } catch (IOException | JSONException e) {
+            Log.w(Utils.TAG, e);
+            return null;
+        }
+    }
+
+    synchronized void putFound(Uri mediaUri, Uri subtitleUri, @Nullable String etag, @Nullable String lastModified, File file) {
+        try {
+            final JSONObject json = new JSONObject();
+            json.put("media", MediaCache.getKey(mediaUri));
+            json.put("time", System.currentTimeMillis());
+            json.put("subtitle", subtitleUri.toString());
+            json.put("etag", etag);
+            json.put("lastModified", lastModified);
+            json.put("file", file.getAbsolutePath());
+            write(mediaUri, json);
+        } catch (JSONException e) {
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    synchronized void putMissing(Uri mediaUri) {
+        try {
+            final JSONObject json = new JSONObject();
+            json.put("media", MediaCache.getKey(mediaUri));
+            json.put("time", System.currentTimeMillis());
+            write(mediaUri, json);
+        } catch (JSONException e) {
+            Log.w(Utils.TAG, e);
+        }
+    }
+
+    synchronized void remove(Uri mediaUri) {
+        getEntryFile(MediaCache.getKey(mediaUri)).delete();
+    }
+
+    private static boolean isExpired(long time, boolean found) {
+        return System.currentTimeMillis() - time > (found ? FOUND_TTL : MISSING_TTL);
+    }
+
+    private File getEntryFile(String key) {
+        return new File(dir, Long.toHexString(Utils.hash(key)) + ".json");
+    }
+
+    private void write(Uri mediaUri, JSONObject json) {
+        if (!dir.exists() && !dir.mkdirs())
+            return;
+        final File file = getEntryFile(MediaCache.getKey(mediaUri));
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(tmp)) {
+            outputStream.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        prune();
+    }
+
+    // Entries past the longest TTL go first (entry mtime is its write time), then least recently written
+    // over MAX_ENTRIES. Directories are converted copies from older versions, those live in SubtitleCache now.
+    private void prune() {
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        final List<File> entries = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                final File[] children = file.listFiles();
+                if (children != null) {
+                    for (File child : children)
+                        child.delete();
+                }
+                file.delete();
+            } else if (System.currentTimeMillis() - file.lastModified() > FOUND_TTL) {
+                file.delete();
+            } else {
+                entries.add(file);
+            }
+        }
+        if (entries.size() <= MAX_ENTRIES)
+            return;
+        Collections.sort(entries, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_ENTRIES; i < entries.size(); i++) {
+            entries.get(i).delete();
+        }
+    }
+}
@@ -1,16 +1,16 @@
 package com.brouken.player;
 
 import android.net.Uri;
-import android.widget.Toast;
 
 import androidx.annotation.NonNull;
-import androidx.media3.common.MediaItem;
+import androidx.annotation.Nullable;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 
 import okhttp3.Call;
@@ -23,116 +23,208 @@ import okhttp3.ResponseBody;
 
 class SubtitleFetcher {
 
+    private static final int PENDING = 0;
+    private static final int FOUND = 1;
+    private static final int MISSING = 2;
+
+    // Hosts known to (not) support HEAD, the others are probed with "Range: bytes=0-0" GET
+    // Total Commander 3.24 / LAN plugin 3.20 does not support HTTP HEAD
+    private static final Map<String, Boolean> headSupport = new ConcurrentHashMap<>();
+
     private PlayerActivity activity;
-    private CountDownLatch countDownLatch;
+    private final CountDownLatch resolved = new CountDownLatch(1);
+    // Media the candidates were derived from, results are cached for it
+    private final Uri mediaUri;
     private final List<Uri> urls;
     private Uri subtitleUri;
-    private final List<Uri> foundUrls;
+    private int[] states;
+    private Call[] calls;
 
-    public SubtitleFetcher(PlayerActivity activity, List<Uri> urls) {
+    public SubtitleFetcher(PlayerActivity activity, @Nullable Uri mediaUri, List<Uri> urls) {
         this.activity = activity;
+        this.mediaUri = mediaUri;
         this.urls = urls;
-        this.foundUrls = new ArrayList<>();
+    }
+
+    // Conditional request for a previously discovered subtitle, replaced only when it changed on the server
+    public static void revalidate(PlayerActivity activity, Uri mediaUri, SubtitleDiscoveryCache.Entry entry) {
+        TaskScheduler.submit(activity, TaskScheduler.PRIORITY_SUBTITLE, "revalidateSubtitle", () -> {
+            final Request.Builder builder = new Request.Builder().url(entry.subtitleUri.toString());
+            if (entry.etag != null)
+                builder.header("If-None-Match", entry.etag);
+            if (entry.lastModified != null)
+                builder.header("If-Modified-Since", entry.lastModified);
+
+            try (Response response = HttpClient.get(activity).newCall(builder.build()).execute()) {
+                Utils.log(response.code() + ": " + entry.subtitleUri);
+                if (response.code() == 304) {
+                    SubtitleDiscoveryCache.getInstance(activity).putFound(mediaUri, entry.subtitleUri, entry.etag, entry.lastModified, entry.file);
+                } else if (response.isSuccessful()) {
+                    new SubtitleFetcher(activity, mediaUri, Collections.singletonList(entry.subtitleUri)).handleResponse(entry.subtitleUri, response);
+                } else if (response.code() == 404 || response.code() == 410) {
+                    SubtitleDiscoveryCache.getInstance(activity).remove(mediaUri);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Utils.log(e.toString());
+            }
+        });
     }
 
     public void start() {
 
-        new Thread(() -> {
+        TaskScheduler.submit(activity, TaskScheduler.PRIORITY_SUBTITLE, "fetchSubtitle", () -> {
 
-            OkHttpClient client = new OkHttpClient.Builder()
-                    //.callTimeout(15, TimeUnit.SECONDS)
-                    .build();
+            OkHttpClient client = HttpClient.get(activity);
 
-            Callback callback = new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    countDownLatch.countDown();
-                }
+            final long start = System.currentTimeMillis();
+            states = new int[urls.size()];
+            calls = new Call[urls.size()];
 
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    Uri url = Uri.parse(response.request().url().toString());
-                    Utils.log(response.code() + ": " + url);
-                    if (response.isSuccessful()) {
-                        foundUrls.add(url);
+            synchronized (this) {
+                for (int i = 0; i < urls.size(); i++) {
+                    final HttpUrl httpUrl = HttpUrl.parse(urls.get(i).toString());
+                    if (httpUrl == null) {
+                        states[i] = MISSING;
+                        continue;
                     }
-                    response.close();
-                    countDownLatch.countDown();
-                }
-            };
-
-            countDownLatch = new CountDownLatch(urls.size());
-
-            for (Uri url : urls) {
-                // Total Commander 3.24 / LAN plugin 3.20 does not support HTTP HEAD
-                //Request request = new Request.Builder().url(url.toString()).head().build();
-                if (HttpUrl.parse(url.toString()) == null) {
-                    countDownLatch.countDown();
-                    continue;
+                    probe(client, i, httpUrl, !Boolean.FALSE.equals(headSupport.get(getHostKey(httpUrl))));
                 }
-                Request request = new Request.Builder().url(url.toString()).build();
-                client.newCall(request).enqueue(callback);
+                checkResolved();
             }
 
             try {
-                countDownLatch.await();
+                resolved.await();
             } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            for (Uri url : urls) {
-                if (foundUrls.contains(url)) {
-                    subtitleUri = url;
-                    break;
+                // Cancelled with the activity
+                synchronized (this) {
+                    for (Call call : calls) {
+                        if (call != null)
+                            call.cancel();
+                    }
                 }
+                return;
             }
 
+            Utils.log("Subtitle probing took " + (System.currentTimeMillis() - start) + " ms");
+
             if (subtitleUri == null) {
+                if (mediaUri != null) {
+                    SubtitleDiscoveryCache.getInstance(activity).putMissing(mediaUri);
+                }
                 return;
             }
 
             Utils.log(subtitleUri.toString());
 
-            // ProtocolException when reusing client:
-            // java.net.ProtocolException: Unexpected status line: 1
-            client = new OkHttpClient.Builder()
-                    //.callTimeout(15, TimeUnit.SECONDS)
-                    .build();
-
             Request request = new Request.Builder().url(subtitleUri.toString()).build();
             try (Response response = client.newCall(request).execute()) {
-                final ResponseBody responseBody = response.body();
+                handleResponse(subtitleUri, response);
+            } catch (IOException e) {
+                Utils.log(e.toString());
+                e.printStackTrace();
+            }
+        });
+    }
 
-                if (responseBody == null || responseBody.contentLength() > 2_000_000) {
-                    return;
-                }
+    private void handleResponse(Uri url, Response response) throws IOException {
+        final ResponseBody responseBody = response.body();
+
+        if (!response.isSuccessful() || responseBody == null || responseBody.contentLength() > SubtitleTranscoder.MAX_SIZE) {
+            return;
+        }
+
+        // Network subtitles are kept converted in SubtitleCache (UTF-8 included) so reopening doesn't need network
+        final SubtitleCache subtitleCache = SubtitleCache.getInstance(activity);
+        final String key = SubtitleCache.getKey(url, response);
+        final String fileName = Utils.getFileName(activity, url, true);
+        File file = subtitleCache.get(key, fileName);
+        if (file == null) {
+            file = subtitleCache.newFile(key, url, fileName);
+            if (SubtitleTranscoder.transcode(responseBody.byteStream(), file, false) == null) {
+                subtitleCache.discard(file);
+                return;
+            }
+            subtitleCache.commit(file);
+        }
+        if (mediaUri != null) {
+            SubtitleDiscoveryCache.getInstance(activity).putFound(mediaUri, url, response.header("ETag"), response.header("Last-Modified"), file);
+        }
+
+        final Uri subtitle = Uri.fromFile(file);
+        activity.runOnUiThread(() -> activity.setFoundSubtitle(mediaUri, subtitle));
+    }
 
-                InputStream inputStream = responseBody.byteStream();
-                Uri convertedSubtitleUri = Utils.convertInputStreamToUTF(activity, subtitleUri, inputStream);
+    private static String getHostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
 
-                if (convertedSubtitleUri == null) {
-                    return;
+    // Called with lock held
+    private void probe(OkHttpClient client, int index, HttpUrl url, boolean head) {
+        final Request.Builder builder = new Request.Builder().url(url);
+        if (head) {
+            builder.head();
+        } else {
+            builder.header("Range", "bytes=0-0");
+        }
+        calls[index] = client.newCall(builder.build());
+        calls[index].enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                synchronized (SubtitleFetcher.this) {
+                    if (call.isCanceled() || resolved.getCount() == 0)
+                        return;
+                    // Failure may be transient, host is retried with GET but not remembered as lacking HEAD
+                    if (head && !Boolean.TRUE.equals(headSupport.get(getHostKey(url)))) {
+                        probe(client, index, url, false);
+                        return;
+                    }
+                    states[index] = MISSING;
+                    checkResolved();
                 }
+            }
 
-                activity.runOnUiThread(() -> {
-                    activity.mPrefs.updateSubtitle(convertedSubtitleUri);
-                    if (PlayerActivity.player != null) {
-                        MediaItem mediaItem = PlayerActivity.player.getCurrentMediaItem();
-                        if (mediaItem != null) {
-                            MediaItem.SubtitleConfiguration subtitle = SubtitleUtils.buildSubtitle(activity, convertedSubtitleUri, null, true);
-                            mediaItem = mediaItem.buildUpon().setSubtitleConfigurations(Collections.singletonList(subtitle)).build();
-                            PlayerActivity.player.setMediaItem(mediaItem, false);
-                            if (BuildConfig.DEBUG) {
-                                Toast.makeText(activity, "Subtitle found", Toast.LENGTH_SHORT).show();
-                            }
-                        }
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                final int code = response.code();
+                response.close();
+                Utils.log(code + ": " + url);
+                synchronized (SubtitleFetcher.this) {
+                    if (resolved.getCount() == 0)
+                        return;
+                    if (head && (code == 400 || code == 405 || code == 501)) {
+                        // Only explicit "method not allowed/implemented" answers are remembered for the host
+                        if (code != 400)
+                            headSupport.put(getHostKey(url), false);
+                        probe(client, index, url, false);
+                        return;
                     }
-                });
-            } catch (IOException e) {
-                Utils.log(e.toString());
-                e.printStackTrace();
+                    if (head) {
+                        headSupport.put(getHostKey(url), true);
+                    }
+                    states[index] = (code == 200 || code == 206) ? FOUND : MISSING;
+                    checkResolved();
+                }
+            }
+        });
+    }
+
+    // Called with lock held, resolves once the best ranked candidate still possible has answered
+    private void checkResolved() {
+        if (resolved.getCount() == 0)
+            return;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == PENDING)
+                return;
+            if (states[i] == FOUND) {
+                subtitleUri = urls.get(i);
+                break;
             }
-        }).start();
+        }
+        for (Call call : calls) {
+            if (call != null)
+                call.cancel();
+        }
+        resolved.countDown();
     }
 
 }
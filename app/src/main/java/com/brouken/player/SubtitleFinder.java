@@ -56,7 +56,7 @@ public class SubtitleFinder {
         }
         urls.add(buildUri("vtt"));
 
-        SubtitleFetcher subtitleFetcher = new SubtitleFetcher(activity, urls);
+        SubtitleFetcher subtitleFetcher = new SubtitleFetcher(activity, baseUri, urls);
         subtitleFetcher.start();
     }
 
@@ -0,0 +1,147 @@
+package com.brouken.player;
+
+import androidx.annotation.Nullable;
+
+import com.sigpwned.chardet4j.Chardet;
+import com.sigpwned.chardet4j.io.DecodedInputStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Converts subtitles to UTF-8 in fixed size chunks. Charset is detected from a bounded prefix only.
+class SubtitleTranscoder {
+
+    static final long MAX_SIZE = 2_000_000;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // Returns detected charset or null when input is larger than MAX_SIZE.
+    // With skipUtf8, target is not written at all when input is already UTF-8.
+    @Nullable
+    static Charset transcode(InputStream inputStream, File target, boolean skipUtf8) throws IOException {
+        final long start = System.currentTimeMillis();
+        final ReadableByteChannel input = Channels.newChannel(inputStream);
+        final ByteBuffer in = ByteBuffer.allocateDirect(CHUNK_SIZE);
+
+        while (in.hasRemaining() && input.read(in) != -1) {
+            // Fill the prefix used for detection
+        }
+        in.flip();
+
+        final Charset charset = detect(in);
+        if (skipUtf8 && StandardCharsets.UTF_8.equals(charset))
+            return charset;
+
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        final ByteBuffer out = ByteBuffer.allocateDirect((int) (CHUNK_SIZE * encoder.maxBytesPerChar()));
+
+        final File tmp = new File(target.getPath() + ".tmp");
+        long bytesIn = in.remaining();
+        long bytesOut = 0;
+        boolean success = false;
+        boolean first = true;
+
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tmp)) {
+            final FileChannel output = fileOutputStream.getChannel();
+            boolean endOfInput = false;
+            while (true) {
+                final CoderResult result = decoder.decode(in, chars, endOfInput);
+                if (result.isError())
+                    result.throwException();
+                if (endOfInput && result.isUnderflow())
+                    decoder.flush(chars);
+
+                chars.flip();
+                if (first && chars.hasRemaining()) {
+                    // Drop BOM
+                    if (chars.get(chars.position()) == '\uFEFF')
+                        chars.get();
+                    first = false;
+                }
+                bytesOut += encode(encoder, chars, out, output, endOfInput && result.isUnderflow());
+                chars.compact();
+
+                if (bytesOut > MAX_SIZE)
+                    return null;
+                if (endOfInput && result.isUnderflow())
+                    break;
+
+                if (result.isUnderflow()) {
+                    in.compact();
+                    final int read = input.read(in);
+                    if (read == -1)
+                        endOfInput = true;
+                    else
+                        bytesIn += read;
+                    in.flip();
+                }
+            }
+            success = true;
+        } finally {
+            if (!success)
+                tmp.delete();
+        }
+
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Couldn't move " + tmp + " to " + target);
+        }
+
+        final long time = Math.max(1, System.currentTimeMillis() - start);
+        Utils.log("Transcoded " + charset + " to UTF-8: " + bytesIn + " B -> " + bytesOut + " B in " + time + " ms ("
+                + (bytesIn / time) + " kB/s)");
+        return charset;
+    }
+
+    private static int encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer out, FileChannel output, boolean endOfInput) throws IOException {
+        int written = 0;
+        while (true) {
+            final CoderResult result = encoder.encode(chars, out, endOfInput);
+            if (result.isError())
+                result.throwException();
+            if (result.isUnderflow()) {
+                if (endOfInput)
+                    encoder.flush(out);
+                return written + write(out, output);
+            }
+            written += write(out, output);
+        }
+    }
+
+    private static int write(ByteBuffer out, FileChannel output) throws IOException {
+        out.flip();
+        int written = 0;
+        while (out.hasRemaining())
+            written += output.write(out);
+        out.clear();
+        return written;
+    }
+
+    private static Charset detect(ByteBuffer prefix) throws IOException {
+        final byte[] bytes = new byte[prefix.remaining()];
+        prefix.duplicate().get(bytes);
+        try (DecodedInputStreamReader reader = Chardet.decode(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)) {
+            return reader.charset();
+        }
+    }
+}
@@ -7,11 +7,11 @@ import android.graphics.Typeface;
 import android.graphics.fonts.FontStyle;
 import android.net.Uri;
 import android.os.Build;
+import android.provider.DocumentsContract;
 import android.util.Log;
 import android.view.accessibility.CaptioningManager;
 
 import androidx.annotation.Nullable;
-import androidx.documentfile.provider.DocumentFile;
 import androidx.media3.common.C;
 import androidx.media3.common.MediaItem;
 import androidx.media3.common.MimeTypes;
@@ -22,9 +22,6 @@ import com.brouken.player.osd.subtitle.SubtitleEdgeType;
 import com.brouken.player.osd.subtitle.SubtitleTypeface;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 class SubtitleUtils {
 
@@ -83,8 +80,10 @@ class SubtitleUtils {
     }
     */
 
-    public static DocumentFile findUriInScope(Context context, Uri scope, Uri uri) {
-        DocumentFile treeUri = DocumentFile.fromTreeUri(context, scope);
+    public static DocumentEntry findUriInScope(Context context, Uri scope, Uri uri) {
+        final DirectoryIndex directoryIndex = DirectoryIndex.getInstance(context);
+        Uri dir = DocumentsContract.buildDocumentUriUsingTree(scope, DocumentsContract.getTreeDocumentId(scope));
+        DocumentEntry doc = null;
         String[] trailScope = getTrailFromUri(scope);
         String[] trailVideo = getTrailFromUri(uri);
 
@@ -93,36 +92,17 @@ class SubtitleUtils {
                 if (!trailScope[i].equals(trailVideo[i]))
                     break;
             } else {
-                treeUri = treeUri.findFile(trailVideo[i]);
-                if (treeUri == null)
+                final DirectoryIndex.Listing listing = directoryIndex.get(dir);
+                if (listing == null)
                     break;
+                final int index = listing.indexOf(trailVideo[i]);
+                if (index < 0)
+                    break;
+                doc = listing.entries[index];
+                dir = doc.uri;
             }
             if (i + 1 == trailVideo.length)
-                return treeUri;
-        }
-        return null;
-    }
-
-    public static DocumentFile findDocInScope(DocumentFile scope, DocumentFile doc) {
-        if (doc == null || scope == null)
-            return null;
-        for (DocumentFile file : scope.listFiles()) {
-            if (file.isDirectory()) {
-                final DocumentFile ret = findDocInScope(file, doc);
-                if (ret != null)
-                    return ret;
-            } else {
-                //if (doc.length() == file.length() && doc.lastModified() == file.lastModified() && doc.getName().equals(file.getName())) {
-                // lastModified is zero when opened from Solid Explorer
-                final String docName = doc.getName();
-                final String fileName = file.getName();
-                if (docName == null || fileName == null) {
-                    continue;
-                }
-                if (doc.length() == file.length() && docName.equals(fileName)) {
-                    return file;
-                }
-            }
+                return doc;
         }
         return null;
     }
@@ -153,88 +133,28 @@ class SubtitleUtils {
         return name;
     }
 
-    public static DocumentFile findSubtitle(DocumentFile video) {
-        DocumentFile dir = video.getParentFile();
-        return findSubtitle(video, dir);
-    }
-
-    public static DocumentFile findSubtitle(DocumentFile video, DocumentFile dir) {
-        String videoName = getFileBaseName(video.getName());
-        int videoFiles = 0;
-
-        if (dir == null || !dir.isDirectory())
+    public static Uri findSubtitle(Context context, String videoName, Uri dir) {
+        if (videoName == null || dir == null)
             return null;
 
-        List<DocumentFile> candidates = new ArrayList<>();
-
-        for (DocumentFile file : dir.listFiles()) {
-            final String fileName = file.getName();
-            if (fileName != null && fileName.startsWith("."))
-                continue;
-            if (isSubtitleFile(file))
-                candidates.add(file);
-            if (isVideoFile(file))
-                videoFiles++;
-        }
-
-        if (videoFiles == 1 && candidates.size() == 1) {
-            return candidates.get(0);
-        }
-
-        if (candidates.size() >= 1) {
-            for (DocumentFile candidate : candidates) {
-                if (candidate.getName().startsWith(videoName + '.')) {
-                    return candidate;
-                }
-            }
-        }
-
-        return null;
-    }
+        final DirectoryIndex.Listing listing = DirectoryIndex.getInstance(context).get(dir);
+        if (listing == null)
+            return null;
 
-    public static DocumentFile findNext(DocumentFile video) {
-        DocumentFile dir = video.getParentFile();
-        return findNext(video, dir);
+        final DocumentEntry subtitle = listing.findSubtitle(getFileBaseName(videoName));
+        return subtitle != null ? subtitle.uri : null;
     }
 
-    public static DocumentFile findNext(DocumentFile video, DocumentFile dir) {
-        if (dir == null) {
+    public static Uri findNext(Context context, String videoName, Uri dir) {
+        if (videoName == null || dir == null)
             return null;
-        }
-
-        try {
-            DocumentFile[] list = dir.listFiles();
-            Arrays.sort(list, (a, b) -> a.getName().compareToIgnoreCase(b.getName()));
-
-            final String videoName = video.getName();
-            boolean matchFound = false;
-
-            for (DocumentFile file : list) {
-                if (file.getName().equals(videoName)) {
-                    matchFound = true;
-                } else if (matchFound) {
-                    if (isVideoFile(file)) {
-                        return file;
-                    }
-                }
-            }
-        } catch (NullPointerException e) {
-            e.printStackTrace();
-        }
 
-        return null;
-    }
-
-    public static boolean isVideoFile(DocumentFile file) {
-        return file.isFile() && file.getType().startsWith("video/");
-    }
+        final DirectoryIndex.Listing listing = DirectoryIndex.getInstance(context).get(dir);
+        if (listing == null)
+            return null;
 
-    public static boolean isSubtitleFile(DocumentFile file) {
-        if (!file.isFile())
-            return false;
-        final String name = file.getName().toLowerCase();
-        return name.endsWith(".srt") || name.endsWith(".ssa") || name.endsWith(".ass")
-                || name.endsWith(".vtt") || name.endsWith(".ttml");
+        final DocumentEntry next = listing.findNext(videoName);
+        return next != null ? next.uri : null;
     }
 
     public static boolean isSubtitle(Uri uri, String mimeType) {
@@ -265,18 +185,6 @@ class SubtitleUtils {
         return false;
     }
 
-    public static void clearCache(Context context) {
-        try {
-            for (File file : context.getCacheDir().listFiles()) {
-                if (file.isFile()) {
-                    file.delete();
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     public static MediaItem.SubtitleConfiguration buildSubtitle(Context context, Uri uri, String subtitleName, boolean selected) {
         final String subtitleMime = SubtitleUtils.getSubtitleMime(uri);
         final String subtitleLanguage = SubtitleUtils.getSubtitleLanguage(uri);
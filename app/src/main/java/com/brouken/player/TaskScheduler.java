@@ -0,0 +1,147 @@
+package com.brouken.player;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared pool for background work. Queued tasks run by priority (then in order of submission) so probing
+// needed to start playback is not stuck behind subtitle work. Index work (crawls, thumbnails, whole-file scans)
+// runs long and has its own few threads, so it never holds up the others. Every task has an owner, all tasks
+// of an owner are dropped (or interrupted when already running) once their result is of no use.
+// Tasks must not wait for other tasks of the pool.
+class TaskScheduler {
+
+    static final int PRIORITY_PLAYBACK = 0;
+    static final int PRIORITY_SUBTITLE = 1;
+    static final int PRIORITY_INDEX = 2;
+
+    private static final int THREADS = 3;
+    private static final int INDEX_THREADS = 2;
+    // Tasks waiting or running longer are logged
+    private static final long SLOW_MS = 200;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+            30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "TaskScheduler");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+
+    private static final ThreadPoolExecutor indexExecutor = new ThreadPoolExecutor(INDEX_THREADS, INDEX_THREADS,
+            30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "TaskScheduler-index");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+        indexExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final AtomicLong completed = new AtomicLong();
+    private static final AtomicLong totalWaitMs = new AtomicLong();
+    private static final AtomicLong totalRunMs = new AtomicLong();
+    private static volatile int maxQueueDepth;
+
+    private static final class Task extends FutureTask<Void> implements Comparable<Task> {
+        final Object owner;
+        final int priority;
+        final String name;
+        final long order = sequence.getAndIncrement();
+        final long submitted = SystemClock.elapsedRealtime();
+        long started;
+
+        Task(Object owner, int priority, String name, Runnable runnable) {
+            super(runnable, null);
+            this.owner = owner;
+            this.priority = priority;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            started = SystemClock.elapsedRealtime();
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            tasks.remove(this);
+            if (isCancelled()) {
+                Utils.log("Task " + name + " cancelled");
+                return;
+            }
+            final long waitMs = started - submitted;
+            final long runMs = SystemClock.elapsedRealtime() - started;
+            completed.incrementAndGet();
+            totalWaitMs.addAndGet(waitMs);
+            totalRunMs.addAndGet(runMs);
+            // Index work is expected to wait
+            if (priority < PRIORITY_INDEX && (waitMs > SLOW_MS || runMs > SLOW_MS)) {
+                Utils.log("Task " + name + " waited " + waitMs + " ms, ran " + runMs + " ms");
+            }
+            try {
+                get();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Task other) {
+            if (priority != other.priority)
+                return Integer.compare(priority, other.priority);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    static Future<?> submit(Object owner, int priority, String name, Runnable runnable) {
+        final Task task = new Task(owner, priority, name, runnable);
+        tasks.add(task);
+        final ThreadPoolExecutor taskExecutor = getExecutor(priority);
+        taskExecutor.execute(task);
+        final int depth = taskExecutor.getQueue().size();
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+        return task;
+    }
+
+    // Drops queued tasks of the owner and interrupts running ones
+    static void cancel(Object owner) {
+        int count = 0;
+        for (Task task : tasks) {
+            if (task.owner == owner && task.cancel(true)) {
+                getExecutor(task.priority).remove(task);
+                count++;
+            }
+        }
+        if (count > 0) {
+            Utils.log("Cancelled " + count + " tasks, " + getSummary());
+        }
+    }
+
+    private static ThreadPoolExecutor getExecutor(int priority) {
+        return priority == PRIORITY_INDEX ? indexExecutor : executor;
+    }
+
+    static String getSummary() {
+        final long count = completed.get();
+        return "queue " + executor.getQueue().size() + "+" + indexExecutor.getQueue().size() + " (max " + maxQueueDepth + ")"
+                + ", active " + executor.getActiveCount() + "+" + indexExecutor.getActiveCount()
+                + ", completed " + count
+                + (count > 0 ? ", avg wait " + totalWaitMs.get() / count + " ms, avg run " + totalRunMs.get() / count + " ms" : "");
+    }
+}
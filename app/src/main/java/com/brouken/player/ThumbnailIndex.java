@@ -0,0 +1,271 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Scrub preview thumbnails: sparse key frames downscaled into one sprite sheet, thumbnail i shows time i * interval.
+// Generated in background (coarse pass over the whole timeline first, then filled in) and cached on disk per media.
+class ThumbnailIndex {
+
+    private static final String DIR_NAME = "thumbnails";
+    private static final int MAGIC = 0x4A505448;
+    private static final int VERSION = 1;
+    private static final int MAX_FILES = 50;
+
+    private static final int WIDTH = 160;
+    private static final int COLUMNS = 10;
+    private static final int MAX_COUNT = 100;
+    private static final long MIN_INTERVAL_MS = 10_000;
+
+    interface Callback {
+        // Called on main thread, first when generating starts (thumbnails get available gradually) or once loaded
+        void onThumbnails(ThumbnailIndex index);
+    }
+
+    final long intervalMs;
+    final int count;
+    final int width;
+    final int height;
+    private final Bitmap sheet;
+    private final boolean[] ready;
+    // Only used from main thread
+    private final Rect src = new Rect();
+
+    private ThumbnailIndex(long intervalMs, int count, int width, int height, Bitmap sheet, boolean complete) {
+        this.intervalMs = intervalMs;
+        this.count = count;
+        this.width = width;
+        this.height = height;
+        this.sheet = sheet;
+        ready = new boolean[count];
+        if (complete) {
+            Arrays.fill(ready, true);
+        }
+    }
+
+    // Only local media, key frames of network media would be read over the same connection as playback
+    static void load(Context context, Uri uri, Object owner, Callback callback) {
+        final String scheme = uri.getScheme();
+        if (!ContentResolver.SCHEME_CONTENT.equals(scheme) && !ContentResolver.SCHEME_FILE.equals(scheme))
+            return;
+        final Context appContext = context.getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        TaskScheduler.submit(owner, TaskScheduler.PRIORITY_INDEX, "thumbnails", () -> {
+            final File dir = new File(appContext.getCacheDir(), DIR_NAME);
+            final String key = Utils.getMediaKey(appContext, uri);
+            final File sheetFile = new File(dir, key + ".jpg");
+            final File indexFile = new File(dir, key + ".idx");
+
+            ThumbnailIndex index = read(indexFile, sheetFile);
+            if (index != null) {
+                final ThumbnailIndex loaded = index;
+                handler.post(() -> callback.onThumbnails(loaded));
+                return;
+            }
+            index = generate(appContext, uri, handler, callback);
+            if (index != null) {
+                index.write(dir, indexFile, sheetFile);
+            }
+        });
+    }
+
+    @Nullable
+    private static ThumbnailIndex read(File indexFile, File sheetFile) {
+        if (!indexFile.exists() || !sheetFile.exists())
+            return null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION)
+                return null;
+            final long intervalMs = input.readLong();
+            final int count = input.readInt();
+            final int width = input.readInt();
+            final int height = input.readInt();
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            options.inMutable = true;
+            final Bitmap sheet = BitmapFactory.decodeFile(sheetFile.getPath(), options);
+            if (sheet == null)
+                return null;
+            indexFile.setLastModified(System.currentTimeMillis());
+            return new ThumbnailIndex(intervalMs, count, width, height, sheet, true);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static ThumbnailIndex generate(Context context, Uri uri, Handler handler, Callback callback) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            final String hasVideo = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_HAS_VIDEO);
+            final long durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+            int videoWidth = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int videoHeight = (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            final long rotation = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+            if (!"yes".equals(hasVideo) || durationMs <= 0 || videoWidth <= 0 || videoHeight <= 0)
+                return null;
+            if (rotation == 90 || rotation == 270) {
+                final int swap = videoWidth;
+                videoWidth = videoHeight;
+                videoHeight = swap;
+            }
+
+            final long intervalMs = Math.max(MIN_INTERVAL_MS, durationMs / MAX_COUNT);
+            final int count = (int) Math.min(MAX_COUNT, durationMs / intervalMs + 1);
+            final int height = Math.max(1, Math.round((float) WIDTH * videoHeight / videoWidth));
+            final int rows = (count + COLUMNS - 1) / COLUMNS;
+            final Bitmap sheet = Bitmap.createBitmap(WIDTH * Math.min(count, COLUMNS), height * rows, Bitmap.Config.RGB_565);
+            final ThumbnailIndex index = new ThumbnailIndex(intervalMs, count, WIDTH, height, sheet, false);
+            handler.post(() -> callback.onThumbnails(index));
+
+            final long start = System.currentTimeMillis();
+            final Canvas canvas = new Canvas(sheet);
+            final Rect rect = new Rect();
+            // Every 8th thumbnail first, then every 4th...
+            for (int step = 8; step >= 1; step /= 2) {
+                for (int i = 0; i < count; i += step) {
+                    if (Thread.currentThread().isInterrupted())
+                        return null;
+                    if (index.ready[i])
+                        continue;
+                    final Bitmap frame = getFrame(retriever, i * intervalMs * 1000, WIDTH, height);
+                    index.getRect(i, rect);
+                    synchronized (sheet) {
+                        if (frame != null) {
+                            canvas.drawBitmap(frame, null, rect, null);
+                        }
+                        index.ready[i] = true;
+                    }
+                    if (frame != null) {
+                        frame.recycle();
+                    }
+                }
+            }
+            Utils.log("Thumbnails generated in " + (System.currentTimeMillis() - start) + " ms, " + count + " frames");
+            return index;
+        } catch (RuntimeException e) {
+            Log.w(Utils.TAG, e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Nullable
+    private static Bitmap getFrame(MediaMetadataRetriever retriever, long timeUs, int width, int height) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return retriever.getScaledFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, width, height);
+        }
+        final Bitmap frame = retriever.getFrameAtTime(timeUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+        if (frame == null)
+            return null;
+        final Bitmap scaled = Bitmap.createScaledBitmap(frame, width, height, true);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value == null)
+            return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void write(File dir, File indexFile, File sheetFile) {
+        if (!dir.exists() && !dir.mkdirs())
+            return;
+        final File tmp = new File(dir, sheetFile.getName() + ".tmp");
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            sheet.compress(Bitmap.CompressFormat.JPEG, 75, output);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(sheetFile))
+            return;
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(intervalMs);
+            output.writeInt(count);
+            output.writeInt(width);
+            output.writeInt(height);
+        } catch (IOException e) {
+            Log.w(Utils.TAG, e);
+            indexFile.delete();
+            return;
+        }
+        prune(dir);
+    }
+
+    // Least recently used media are dropped
+    private static void prune(File dir) {
+        final File[] files = dir.listFiles((file, name) -> name.endsWith(".idx"));
+        if (files == null || files.length <= MAX_FILES)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_FILES; i < files.length; i++) {
+            final String name = files[i].getName();
+            files[i].delete();
+            new File(dir, name.substring(0, name.length() - 4) + ".jpg").delete();
+        }
+    }
+
+    private void getRect(int i, Rect rect) {
+        final int left = (i % COLUMNS) * width;
+        final int top = (i / COLUMNS) * height;
+        rect.set(left, top, left + width, top + height);
+    }
+
+    // Draws thumbnail nearest to the position which is already available, false when there's none yet
+    boolean draw(long positionMs, Canvas canvas, Rect dst) {
+        final int target = (int) Math.max(0, Math.min(count - 1, (positionMs + intervalMs / 2) / intervalMs));
+        synchronized (sheet) {
+            for (int distance = 0; distance < count; distance++) {
+                final int i = target - distance >= 0 && ready[target - distance] ? target - distance
+                        : target + distance < count && ready[target + distance] ? target + distance : -1;
+                if (i >= 0) {
+                    getRect(i, src);
+                    canvas.drawBitmap(sheet, src, dst, null);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -48,13 +48,8 @@ import androidx.media3.common.Format;
 import androidx.media3.common.MimeTypes;
 
 import com.obsez.android.lib.filechooser.ChooserDialog;
-import com.sigpwned.chardet4j.Chardet;
-import com.sigpwned.chardet4j.io.DecodedInputStreamReader;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
@@ -62,6 +57,7 @@ import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
@@ -409,6 +405,30 @@ class Utils {
         }
     }
 
+    // Persistent key of media content: uri with size and modification time for local media, uri only for network.
+    // May query the provider, not to be called on main thread.
+    public static String getMediaKey(Context context, Uri uri) {
+        String key = uri.toString();
+        final String scheme = uri.getScheme();
+        if (ContentResolver.SCHEME_CONTENT.equals(scheme) || ContentResolver.SCHEME_FILE.equals(scheme)) {
+            final DocumentEntry entry = DocumentLister.query(context, uri);
+            if (entry != null) {
+                key += "|" + entry.size + "|" + entry.lastModified;
+            }
+        }
+        return Long.toHexString(hash(key));
+    }
+
+    // 64-bit FNV-1a, for persistent keys
+    public static long hash(final String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     public static void setViewMargins(final View view, int marginLeft, int marginTop, int marginRight, int marginBottom) {
         final FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) view.getLayoutParams();
         layoutParams.setMargins(marginLeft, marginTop, marginRight, marginBottom);
@@ -615,7 +635,6 @@ class Utils {
                             activity.searchSubtitles();
                         } else {
                             // Convert subtitles to UTF-8 if necessary
-                            SubtitleUtils.clearCache(activity);
                             uri = Utils.convertToUTF(activity, uri);
 
                             activity.mPrefs.updateSubtitle(uri);
@@ -644,12 +663,17 @@ class Utils {
             if (scheme != null && scheme.toLowerCase().startsWith("http")) {
                 List<Uri> urls = new ArrayList<>();
                 urls.add(subtitleUri);
-                SubtitleFetcher subtitleFetcher = new SubtitleFetcher(activity, urls);
+                SubtitleFetcher subtitleFetcher = new SubtitleFetcher(activity, null, urls);
                 subtitleFetcher.start();
                 return null;
             } else {
+                final String key = SubtitleCache.getKey(activity, subtitleUri);
+                final File cached = SubtitleCache.getInstance(activity).get(key, getCacheFileName(subtitleUri));
+                if (cached != null) {
+                    return Uri.fromFile(cached);
+                }
                 InputStream inputStream = activity.getContentResolver().openInputStream(subtitleUri);
-                return convertInputStreamToUTF(activity, subtitleUri, inputStream);
+                return convertInputStreamToUTF(activity, subtitleUri, inputStream, key);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -657,35 +681,21 @@ class Utils {
         return subtitleUri;
     }
 
-    public static Uri convertInputStreamToUTF(Context context, Uri subtitleUri, InputStream inputStream) {
-        try {
-            DecodedInputStreamReader decodedInputStreamReader = Chardet.decode(inputStream, StandardCharsets.UTF_8);
-            Charset charset = decodedInputStreamReader.charset();
-            if (!StandardCharsets.UTF_8.equals(charset)) {
-                String filename = subtitleUri.getPath();
-                filename = filename.substring(filename.lastIndexOf("/") + 1);
-                final File file = new File(context.getCacheDir(), filename);
-                final BufferedReader bufferedReader = new BufferedReader(decodedInputStreamReader);
-                final BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(file));
-                char[] buffer = new char[512];
-                int num;
-                int pass = 0;
-                boolean success = true;
-                while ((num = bufferedReader.read(buffer)) != -1) {
-                    bufferedWriter.write(buffer, 0, num);
-                    pass++;
-                    if (pass * 512 > 2_000_000) {
-                        success = false;
-                        break;
-                    }
-                }
-                bufferedWriter.close();
-                bufferedReader.close();
-                if (success) {
-                    subtitleUri = Uri.fromFile(file);
-                } else {
-                    subtitleUri = null;
-                }
+    // Key is the SubtitleCache key of the source, when null the conversion is not reused
+    public static Uri convertInputStreamToUTF(Context context, Uri subtitleUri, InputStream inputStream, String key) {
+        try (InputStream input = inputStream) {
+            final SubtitleCache cache = SubtitleCache.getInstance(context);
+            final File file = cache.newFile(key, subtitleUri, getCacheFileName(subtitleUri));
+            final Charset charset = SubtitleTranscoder.transcode(input, file, true);
+            if (charset == null) {
+                cache.discard(file);
+                subtitleUri = null;
+            } else if (!StandardCharsets.UTF_8.equals(charset)) {
+                cache.commit(file);
+                subtitleUri = Uri.fromFile(file);
+            } else {
+                // Source is used as is
+                cache.discard(file);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -693,6 +703,11 @@ class Utils {
         return subtitleUri;
     }
 
+    static String getCacheFileName(Uri subtitleUri) {
+        final String path = subtitleUri.getPath();
+        return path.substring(path.lastIndexOf("/") + 1);
+    }
+
     public static boolean isPiPSupported(Context context) {
         PackageManager packageManager = context.getPackageManager();
         if (BuildConfig.FLAVOR_distribution.equals("amazon") && packageManager.hasSystemFeature(FEATURE_FIRE_TV)) {
@@ -793,9 +808,10 @@ class Utils {
 
     public static double getFrameRate(Context context, Uri videoUri) {
         MediaExtractor mediaExtractor = new MediaExtractor();
-        ArrayList<Long> timestamps = new ArrayList<>();
-        double frameRate = Format.NO_VALUE;
         int ignoreSamples = 30;
+        long[] timestamps = new long[350 + ignoreSamples];
+        int count = 0;
+        double frameRate = Format.NO_VALUE;
         try {
             mediaExtractor.setDataSource(context, videoUri, null);
             for (int i = 0; i < mediaExtractor.getTrackCount(); i++) {
@@ -803,24 +819,22 @@ class Utils {
                 String mimeType = format.getString(MediaFormat.KEY_MIME);
                 if (mimeType != null && mimeType.startsWith("video/")) {
                     mediaExtractor.selectTrack(i);
-                    while (timestamps.size() < 350 + ignoreSamples) {
+                    while (count < timestamps.length) {
                         long timestamp = mediaExtractor.getSampleTime();
                         if (timestamp < 0) {
                             break;
                         }
-                        timestamps.add(timestamp);
+                        timestamps[count++] = timestamp;
                         mediaExtractor.advance();
                     }
                     break;
                 }
             }
-            Collections.sort(timestamps);
-            long totalFrameDuration = 0;
-            for (int i = 1; i < (timestamps.size() - ignoreSamples); i++) {
-                totalFrameDuration += (timestamps.get(i) - timestamps.get(i - 1));
-            }
-            if (timestamps.size() > 1) {
-                double averageFrameDuration = (double) totalFrameDuration / (timestamps.size() - ignoreSamples - 1);
+            // Samples come in decoding order, last ones (reordered frames) may be missing their neighbours
+            Arrays.sort(timestamps, 0, count);
+            int gaps = count - ignoreSamples - 1;
+            if (gaps > 0) {
+                double averageFrameDuration = (double) (timestamps[gaps] - timestamps[0]) / gaps;
                 frameRate = 1_000_000.0 / averageFrameDuration;
                 if (frameRate > 23.95 && frameRate < 23.988) {
                     frameRate = 24000.0 / 1001.0;
@@ -850,14 +864,21 @@ class Utils {
         // preferredDisplayModeId only available on SDK 23+
         // ExoPlayer already uses Surface.setFrameRate() on Android 11+
         if (Build.VERSION.SDK_INT >= 23) {
-            if (activity.frameRateSwitchThread != null) {
-                activity.frameRateSwitchThread.interrupt();
+            if (activity.frameRateSwitchTask != null) {
+                activity.frameRateSwitchTask.cancel(true);
             }
-            activity.frameRateSwitchThread = new Thread(() -> {
-                float frameRate = (float) getFrameRate(activity, uri);
+            activity.frameRateSwitchTask = TaskScheduler.submit(activity.playbackTasks, TaskScheduler.PRIORITY_PLAYBACK, "frameRate", () -> {
+                final FrameRateCache cache = FrameRateCache.getInstance(activity);
+                final String key = cache.getKey(uri);
+                float frameRate = cache.get(key);
+                if (frameRate > 0) {
+                    Utils.log("Cached frame rate: " + frameRate);
+                } else {
+                    frameRate = (float) getFrameRate(activity, uri);
+                    cache.put(key, frameRate);
+                }
                 Utils.handleFrameRate(activity, frameRate, play);
             });
-            activity.frameRateSwitchThread.start();
             return true;
         } else {
             return false;
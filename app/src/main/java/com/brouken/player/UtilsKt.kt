@@ -16,7 +16,9 @@ object UtilsKt {
 
         val samplesToCollect = 60
         val totalSamplesNeeded = samplesToCollect + ignoreSamples
-        val timestamps = ArrayList<Long>(totalSamplesNeeded)
+        // Ring of the latest timestamps, the ignored first ones get overwritten
+        val timestamps = LongArray(samplesToCollect + 1)
+        var count = 0
         val mainHandler = Handler(Looper.getMainLooper())
 
         player.setVideoFrameMetadataListener(
@@ -27,10 +29,11 @@ object UtilsKt {
                     format: Format,
                     mediaFormat: android.media.MediaFormat?
                 ) {
-                    if (timestamps.size < totalSamplesNeeded) {
-                        timestamps.add(presentationTimeUs)
+                    if (count <= totalSamplesNeeded) {
+                        timestamps[count % timestamps.size] = presentationTimeUs
+                        count++
 
-                        if (timestamps.size == totalSamplesNeeded) {
+                        if (count > totalSamplesNeeded) {
                             val listener = this
                             mainHandler.post {
                                 player.clearVideoFrameMetadataListener(listener)
@@ -40,8 +43,8 @@ object UtilsKt {
                             var validGaps = 0
                             var totalValidDurationUs = 0L
 
-                            for (i in (ignoreSamples + 1) until timestamps.size) {
-                                val gap = timestamps[i] - timestamps[i - 1]
+                            for (i in (count - samplesToCollect) until count) {
+                                val gap = timestamps[i % timestamps.size] - timestamps[(i - 1) % timestamps.size]
 
                                 // Protect against dropped frames or discontinuities.
                                 // A normal frame gap shouldn't be larger than ~50ms (20fps minimum).
@@ -19,10 +19,10 @@ import androidx.constraintlayout.widget.ConstraintSet;
 import androidx.core.content.ContextCompat;
 import androidx.core.widget.TextViewCompat;
 import androidx.media3.exoplayer.ExoPlayer;
-import androidx.media3.exoplayer.SeekParameters;
 
 import com.brouken.player.PlayerActivity;
 import com.brouken.player.R;
+import com.brouken.player.SeekScheduler;
 import com.brouken.player.dtpv.DoubleTapPlayerView;
 import com.brouken.player.dtpv.PlayerDoubleTapListener;
 import com.brouken.player.dtpv.SeekListener;
@@ -474,14 +474,13 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
      * @param newPosition desired position
      */
     private void seekToPosition(long newPosition) {
-        if (player == null || playerView == null)
+        final SeekScheduler seekScheduler = PlayerActivity.seekScheduler;
+        if (player == null || playerView == null || seekScheduler == null)
             return;
 
-        player.setSeekParameters(SeekParameters.EXACT);
-
         // Start of the video reached
         if (newPosition <= 0) {
-            player.seekTo(0);
+            seekScheduler.finish(0);
 
             if (seekListener != null)
                 seekListener.onVideoStartReached();
@@ -491,7 +490,7 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
         // End of the video reached
         long total = player.getDuration();
         if (newPosition >= total) {
-            player.seekTo(total);
+            seekScheduler.finish(total);
 
             if (seekListener != null)
                 seekListener.onVideoEndReached();
@@ -500,19 +499,19 @@ public final class YouTubeOverlay extends ConstraintLayout implements PlayerDoub
 
         // Otherwise
         playerView.keepInDoubleTapMode();
-        player.seekTo(newPosition);
+        seekScheduler.finish(newPosition);
     }
 
     private void forwarding() {
         SecondsView secondsView = findViewById(R.id.seconds_view);
         secondsView.setSeconds(secondsView.getSeconds() + seekSeconds);
-        seekToPosition(player != null ? player.getCurrentPosition() + (long)(this.seekSeconds * 1000) : null);
+        seekToPosition(PlayerActivity.seekScheduler != null ? PlayerActivity.seekScheduler.getPosition() + (long)(this.seekSeconds * 1000) : null);
     }
 
     private void rewinding() {
         SecondsView secondsView = findViewById(R.id.seconds_view);
         secondsView.setSeconds(secondsView.getSeconds() + seekSeconds);
-        seekToPosition(player != null ? player.getCurrentPosition() - (long)(this.seekSeconds * 1000) : null);
+        seekToPosition(PlayerActivity.seekScheduler != null ? PlayerActivity.seekScheduler.getPosition() - (long)(this.seekSeconds * 1000) : null);
     }
 
     private void changeConstraints(boolean forward) {
@@ -0,0 +1,161 @@
+package com.brouken.player.subtitle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.media3.common.Format;
+import androidx.media3.common.util.Clock;
+import androidx.media3.exoplayer.ExoPlaybackException;
+import androidx.media3.exoplayer.MediaClock;
+import androidx.media3.exoplayer.Renderer;
+import androidx.media3.exoplayer.RendererCapabilities;
+import androidx.media3.exoplayer.RendererConfiguration;
+import androidx.media3.exoplayer.analytics.PlayerId;
+import androidx.media3.exoplayer.source.MediaSource;
+import androidx.media3.exoplayer.source.SampleStream;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Wraps text renderer so that it renders at (position - delay): positive delay shows subtitles later.
+// Delay is read on every render call so a change applies on the next frame, without re-preparing the player.
+// Cues are read ahead of playback position (whole sidecar files, buffered embedded samples) so both directions work.
+public final class SubtitleDelayRenderer implements Renderer {
+
+    private final Renderer delegate;
+    private final AtomicInteger delayMs;
+
+    public SubtitleDelayRenderer(Renderer delegate, AtomicInteger delayMs) {
+        this.delegate = delegate;
+        this.delayMs = delayMs;
+    }
+
+    private long shift(long positionUs) {
+        return positionUs - TimeUnit.MILLISECONDS.toMicros(delayMs.get());
+    }
+
+    @Override
+    public void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException {
+        delegate.render(shift(positionUs), elapsedRealtimeUs);
+    }
+
+    @Override
+    public void enable(@NonNull RendererConfiguration configuration, @NonNull Format[] formats, @NonNull SampleStream stream, long positionUs, boolean joining, boolean mayRenderStartOfStream, long startPositionUs, long offsetUs, @NonNull MediaSource.MediaPeriodId mediaPeriodId) throws ExoPlaybackException {
+        delegate.enable(configuration, formats, stream, shift(positionUs), joining, mayRenderStartOfStream, startPositionUs, offsetUs, mediaPeriodId);
+    }
+
+    @Override
+    public void resetPosition(long positionUs) throws ExoPlaybackException {
+        delegate.resetPosition(shift(positionUs));
+    }
+
+    @Override
+    public void handleMessage(int messageType, @Nullable Object message) throws ExoPlaybackException {
+        delegate.handleMessage(messageType, message);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public int getTrackType() {
+        return delegate.getTrackType();
+    }
+
+    @NonNull
+    @Override
+    public RendererCapabilities getCapabilities() {
+        return delegate.getCapabilities();
+    }
+
+    @Override
+    public void init(int index, @NonNull PlayerId playerId, @NonNull Clock clock) {
+        delegate.init(index, playerId, clock);
+    }
+
+    @Nullable
+    @Override
+    public MediaClock getMediaClock() {
+        return delegate.getMediaClock();
+    }
+
+    @Override
+    public int getState() {
+        return delegate.getState();
+    }
+
+    @Override
+    public void start() throws ExoPlaybackException {
+        delegate.start();
+    }
+
+    @Override
+    public void replaceStream(@NonNull Format[] formats, @NonNull SampleStream stream, long startPositionUs, long offsetUs, @NonNull MediaSource.MediaPeriodId mediaPeriodId) throws ExoPlaybackException {
+        delegate.replaceStream(formats, stream, startPositionUs, offsetUs, mediaPeriodId);
+    }
+
+    @Nullable
+    @Override
+    public SampleStream getStream() {
+        return delegate.getStream();
+    }
+
+    @Override
+    public boolean hasReadStreamToEnd() {
+        return delegate.hasReadStreamToEnd();
+    }
+
+    @Override
+    public long getReadingPositionUs() {
+        return delegate.getReadingPositionUs();
+    }
+
+    @Override
+    public void setCurrentStreamFinal() {
+        delegate.setCurrentStreamFinal();
+    }
+
+    @Override
+    public boolean isCurrentStreamFinal() {
+        return delegate.isCurrentStreamFinal();
+    }
+
+    @Override
+    public void maybeThrowStreamError() throws IOException {
+        delegate.maybeThrowStreamError();
+    }
+
+    @Override
+    public boolean isReady() {
+        return delegate.isReady();
+    }
+
+    @Override
+    public boolean isEnded() {
+        return delegate.isEnded();
+    }
+
+    @Override
+    public void stop() {
+        delegate.stop();
+    }
+
+    @Override
+    public void disable() {
+        delegate.disable();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    public void release() {
+        delegate.release();
+    }
+
+}
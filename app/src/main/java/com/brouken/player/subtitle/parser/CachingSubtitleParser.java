@@ -0,0 +1,81 @@
+package com.brouken.player.subtitle.parser;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.media3.common.C;
+import androidx.media3.common.util.Consumer;
+import androidx.media3.extractor.text.CuesWithTiming;
+import androidx.media3.extractor.text.SubtitleParser;
+
+import com.brouken.player.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Whole subtitle files are parsed once, later loads of the same content replay cues from CueCache.
+// Small inputs (samples of embedded tracks) and partial parses go straight to the parser.
+final class CachingSubtitleParser implements SubtitleParser {
+
+    private static final String TAG = "CachingSubtitleParser";
+    private static final int MIN_SIZE = 16 * 1024;
+
+    private final MicroDvdParser delegate;
+    private final CueCache cache;
+    private final long seed;
+
+    CachingSubtitleParser(MicroDvdParser delegate, CueCache cache, long seed) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.seed = seed;
+    }
+
+    @Override
+    public void parse(@NonNull byte[] data, @NonNull OutputOptions outputOptions, @NonNull Consumer<CuesWithTiming> output) {
+        parse(data, 0, data.length, outputOptions, output);
+    }
+
+    @Override
+    public void parse(@NonNull byte[] data, int offset, int length, @NonNull OutputOptions outputOptions, @NonNull Consumer<CuesWithTiming> output) {
+        if (length < MIN_SIZE || outputOptions.startTimeUs != C.TIME_UNSET) {
+            delegate.parse(data, offset, length, outputOptions, output);
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final long key = CueCache.hash(seed, data, offset, length);
+        final List<CuesWithTiming> cached = cache.read(key);
+        if (cached != null) {
+            delegate.detect(data, offset, length);
+            for (CuesWithTiming cuesWithTiming : cached) {
+                output.accept(cuesWithTiming);
+            }
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Loaded " + cached.size() + " cues from cache in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+            return;
+        }
+
+        final List<CuesWithTiming> parsed = new ArrayList<>();
+        delegate.parse(data, offset, length, outputOptions, cuesWithTiming -> {
+            parsed.add(cuesWithTiming);
+            output.accept(cuesWithTiming);
+        });
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Parsed " + parsed.size() + " cues in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        cache.write(key, parsed);
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    @Override
+    public int getCueReplacementBehavior() {
+        return delegate.getCueReplacementBehavior();
+    }
+
+}
@@ -0,0 +1,376 @@
+package com.brouken.player.subtitle.parser;
+
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.AbsoluteSizeSpan;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.UnderlineSpan;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.media3.common.text.Cue;
+import androidx.media3.common.text.HorizontalTextInVerticalContextSpan;
+import androidx.media3.common.text.RubySpan;
+import androidx.media3.common.text.TextEmphasisSpan;
+import androidx.media3.extractor.text.CuesWithTiming;
+
+import com.brouken.player.BuildConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Parsed cues in a compact binary form: timing arrays, string table and cue layout with style runs.
+// Loading an entry skips text parsing completely. Cues with bitmaps or unknown spans are not cached.
+final class CueCache {
+
+    private static final String TAG = "CueCache";
+
+    private static final int MAGIC = 0x4A504355;
+    private static final int VERSION = 1;
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+
+    private static final int SPAN_STYLE = 1;
+    private static final int SPAN_UNDERLINE = 2;
+    private static final int SPAN_STRIKETHROUGH = 3;
+    private static final int SPAN_FOREGROUND_COLOR = 4;
+    private static final int SPAN_BACKGROUND_COLOR = 5;
+    private static final int SPAN_ABSOLUTE_SIZE = 6;
+    private static final int SPAN_RELATIVE_SIZE = 7;
+    private static final int SPAN_TYPEFACE = 8;
+    private static final int SPAN_RUBY = 9;
+    private static final int SPAN_HORIZONTAL_IN_VERTICAL = 10;
+    private static final int SPAN_TEXT_EMPHASIS = 11;
+
+    private static final Layout.Alignment[] ALIGNMENTS = Layout.Alignment.values();
+
+    private final File dir;
+
+    private static final class NotCacheableException extends IOException {
+        NotCacheableException(String message) {
+            super(message);
+        }
+    }
+
+    CueCache(File dir) {
+        this.dir = dir;
+    }
+
+    // 64-bit FNV-1a continued from seed
+    static long hash(long seed, byte[] data, int offset, int length) {
+        long hash = seed;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Nullable
+    synchronized List<CuesWithTiming> read(long key) {
+        final File file = getFile(key);
+        if (!file.exists())
+            return null;
+        final byte[] data = new byte[(int) file.length()];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int offset = 0;
+            int read;
+            while (offset < data.length && (read = inputStream.read(data, offset, data.length - offset)) != -1)
+                offset += read;
+            final List<CuesWithTiming> cuesWithTimings = decode(new DataInputStream(new ByteArrayInputStream(data, 0, offset)), key);
+            if (cuesWithTimings == null)
+                file.delete();
+            else
+                file.setLastModified(System.currentTimeMillis());
+            return cuesWithTimings;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    synchronized void write(long key, List<CuesWithTiming> cuesWithTimings) {
+        if (!dir.exists() && !dir.mkdirs())
+            return;
+        final File file = getFile(key);
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            encode(out, key, cuesWithTimings);
+        } catch (NotCacheableException e) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, e.getMessage());
+            }
+            tmp.delete();
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            return;
+        }
+        trim(file);
+    }
+
+    private File getFile(long key) {
+        return new File(dir, Long.toHexString(key) + ".cue");
+    }
+
+    private void trim(File keep) {
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        if (total <= MAX_SIZE)
+            return;
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_SIZE)
+                break;
+            if (file.equals(keep))
+                continue;
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    private static void encode(DataOutputStream out, long key, List<CuesWithTiming> cuesWithTimings) throws IOException {
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        final ByteArrayOutputStream cueBytes = new ByteArrayOutputStream();
+        final DataOutputStream cueOut = new DataOutputStream(cueBytes);
+        for (CuesWithTiming cuesWithTiming : cuesWithTimings) {
+            for (Cue cue : cuesWithTiming.cues)
+                encodeCue(cueOut, cue, strings);
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(key);
+
+        out.writeInt(strings.size());
+        for (String string : strings.keySet())
+            out.writeUTF(string);
+
+        out.writeInt(cuesWithTimings.size());
+        for (CuesWithTiming cuesWithTiming : cuesWithTimings)
+            out.writeLong(cuesWithTiming.startTimeUs);
+        for (CuesWithTiming cuesWithTiming : cuesWithTimings)
+            out.writeLong(cuesWithTiming.durationUs);
+        for (CuesWithTiming cuesWithTiming : cuesWithTimings)
+            out.writeInt(cuesWithTiming.cues.size());
+
+        cueBytes.writeTo(out);
+    }
+
+    @Nullable
+    private static List<CuesWithTiming> decode(DataInputStream in, long key) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != key)
+            return null;
+
+        final String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++)
+            strings[i] = in.readUTF();
+
+        final int count = in.readInt();
+        final long[] startTimesUs = new long[count];
+        final long[] durationsUs = new long[count];
+        final int[] cueCounts = new int[count];
+        for (int i = 0; i < count; i++)
+            startTimesUs[i] = in.readLong();
+        for (int i = 0; i < count; i++)
+            durationsUs[i] = in.readLong();
+        for (int i = 0; i < count; i++)
+            cueCounts[i] = in.readInt();
+
+        final List<CuesWithTiming> cuesWithTimings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final List<Cue> cues = new ArrayList<>(cueCounts[i]);
+            for (int j = 0; j < cueCounts[i]; j++)
+                cues.add(decodeCue(in, strings));
+            cuesWithTimings.add(new CuesWithTiming(cues, startTimesUs[i], durationsUs[i]));
+        }
+        return cuesWithTimings;
+    }
+
+    private static void encodeCue(DataOutputStream out, Cue cue, Map<String, Integer> strings) throws IOException {
+        if (cue.bitmap != null)
+            throw new NotCacheableException("Bitmap cue");
+
+        final CharSequence text = cue.text;
+        out.writeInt(text == null ? -1 : getStringIndex(strings, text.toString()));
+        out.writeByte(cue.textAlignment == null ? 0 : cue.textAlignment.ordinal() + 1);
+        out.writeByte(cue.multiRowAlignment == null ? 0 : cue.multiRowAlignment.ordinal() + 1);
+        out.writeFloat(cue.line);
+        out.writeInt(cue.lineType);
+        out.writeInt(cue.lineAnchor);
+        out.writeFloat(cue.position);
+        out.writeInt(cue.positionAnchor);
+        out.writeFloat(cue.size);
+        out.writeFloat(cue.bitmapHeight);
+        out.writeBoolean(cue.windowColorSet);
+        out.writeInt(cue.windowColor);
+        out.writeInt(cue.textSizeType);
+        out.writeFloat(cue.textSize);
+        out.writeInt(cue.verticalType);
+        out.writeFloat(cue.shearDegrees);
+
+        if (!(text instanceof Spanned)) {
+            out.writeInt(0);
+            return;
+        }
+        final Spanned spanned = (Spanned) text;
+        final Object[] spans = spanned.getSpans(0, spanned.length(), Object.class);
+        out.writeInt(spans.length);
+        for (Object span : spans) {
+            out.writeInt(spanned.getSpanStart(span));
+            out.writeInt(spanned.getSpanEnd(span));
+            out.writeInt(spanned.getSpanFlags(span));
+            encodeSpan(out, span, strings);
+        }
+    }
+
+    private static void encodeSpan(DataOutputStream out, Object span, Map<String, Integer> strings) throws IOException {
+        if (span instanceof StyleSpan) {
+            out.writeByte(SPAN_STYLE);
+            out.writeInt(((StyleSpan) span).getStyle());
+        } else if (span instanceof UnderlineSpan) {
+            out.writeByte(SPAN_UNDERLINE);
+        } else if (span instanceof StrikethroughSpan) {
+            out.writeByte(SPAN_STRIKETHROUGH);
+        } else if (span instanceof ForegroundColorSpan) {
+            out.writeByte(SPAN_FOREGROUND_COLOR);
+            out.writeInt(((ForegroundColorSpan) span).getForegroundColor());
+        } else if (span instanceof BackgroundColorSpan) {
+            out.writeByte(SPAN_BACKGROUND_COLOR);
+            out.writeInt(((BackgroundColorSpan) span).getBackgroundColor());
+        } else if (span instanceof AbsoluteSizeSpan) {
+            out.writeByte(SPAN_ABSOLUTE_SIZE);
+            out.writeInt(((AbsoluteSizeSpan) span).getSize());
+            out.writeBoolean(((AbsoluteSizeSpan) span).getDip());
+        } else if (span instanceof RelativeSizeSpan) {
+            out.writeByte(SPAN_RELATIVE_SIZE);
+            out.writeFloat(((RelativeSizeSpan) span).getSizeChange());
+        } else if (span instanceof TypefaceSpan && ((TypefaceSpan) span).getFamily() != null) {
+            out.writeByte(SPAN_TYPEFACE);
+            out.writeInt(getStringIndex(strings, ((TypefaceSpan) span).getFamily()));
+        } else if (span instanceof RubySpan) {
+            out.writeByte(SPAN_RUBY);
+            out.writeInt(getStringIndex(strings, ((RubySpan) span).rubyText));
+            out.writeInt(((RubySpan) span).position);
+        } else if (span instanceof HorizontalTextInVerticalContextSpan) {
+            out.writeByte(SPAN_HORIZONTAL_IN_VERTICAL);
+        } else if (span instanceof TextEmphasisSpan) {
+            final TextEmphasisSpan textEmphasisSpan = (TextEmphasisSpan) span;
+            out.writeByte(SPAN_TEXT_EMPHASIS);
+            out.writeInt(textEmphasisSpan.markShape);
+            out.writeInt(textEmphasisSpan.markFill);
+            out.writeInt(textEmphasisSpan.position);
+        } else {
+            throw new NotCacheableException("Unsupported span " + span.getClass().getName());
+        }
+    }
+
+    private static Cue decodeCue(DataInputStream in, String[] strings) throws IOException {
+        final int textIndex = in.readInt();
+        final int textAlignment = in.readByte();
+        final int multiRowAlignment = in.readByte();
+        final Cue.Builder builder = new Cue.Builder()
+                .setTextAlignment(textAlignment == 0 ? null : ALIGNMENTS[textAlignment - 1])
+                .setMultiRowAlignment(multiRowAlignment == 0 ? null : ALIGNMENTS[multiRowAlignment - 1]);
+        final float line = in.readFloat();
+        builder.setLine(line, in.readInt())
+                .setLineAnchor(in.readInt())
+                .setPosition(in.readFloat())
+                .setPositionAnchor(in.readInt())
+                .setSize(in.readFloat())
+                .setBitmapHeight(in.readFloat());
+        final boolean windowColorSet = in.readBoolean();
+        final int windowColor = in.readInt();
+        if (windowColorSet)
+            builder.setWindowColor(windowColor);
+        final int textSizeType = in.readInt();
+        builder.setTextSize(in.readFloat(), textSizeType)
+                .setVerticalType(in.readInt())
+                .setShearDegrees(in.readFloat());
+
+        final int spanCount = in.readInt();
+        if (textIndex < 0) {
+            if (spanCount != 0)
+                throw new IOException("Spans without text");
+            return builder.build();
+        }
+        if (spanCount == 0)
+            return builder.setText(strings[textIndex]).build();
+
+        final SpannableString text = new SpannableString(strings[textIndex]);
+        for (int i = 0; i < spanCount; i++) {
+            final int start = in.readInt();
+            final int end = in.readInt();
+            final int flags = in.readInt();
+            text.setSpan(decodeSpan(in, strings), start, end, flags);
+        }
+        return builder.setText(text).build();
+    }
+
+    private static Object decodeSpan(DataInputStream in, String[] strings) throws IOException {
+        final int type = in.readByte();
+        switch (type) {
+            case SPAN_STYLE:
+                return new StyleSpan(in.readInt());
+            case SPAN_UNDERLINE:
+                return new UnderlineSpan();
+            case SPAN_STRIKETHROUGH:
+                return new StrikethroughSpan();
+            case SPAN_FOREGROUND_COLOR:
+                return new ForegroundColorSpan(in.readInt());
+            case SPAN_BACKGROUND_COLOR:
+                return new BackgroundColorSpan(in.readInt());
+            case SPAN_ABSOLUTE_SIZE:
+                return new AbsoluteSizeSpan(in.readInt(), in.readBoolean());
+            case SPAN_RELATIVE_SIZE:
+                return new RelativeSizeSpan(in.readFloat());
+            case SPAN_TYPEFACE:
+                return new TypefaceSpan(strings[in.readInt()]);
+            case SPAN_RUBY:
+                return new RubySpan(strings[in.readInt()], in.readInt());
+            case SPAN_HORIZONTAL_IN_VERTICAL:
+                return new HorizontalTextInVerticalContextSpan();
+            case SPAN_TEXT_EMPHASIS:
+                return new TextEmphasisSpan(in.readInt(), in.readInt(), in.readInt());
+            default:
+                throw new IOException("Unknown span type " + type);
+        }
+    }
+
+    private static int getStringIndex(Map<String, Integer> strings, String string) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+        return index;
+    }
+}
@@ -1,12 +1,17 @@
 package com.brouken.player.subtitle.parser;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.media3.common.Format;
 import androidx.media3.common.MimeTypes;
 import androidx.media3.extractor.text.DefaultSubtitleParserFactory;
 import androidx.media3.extractor.text.SubtitleParser;
 
+import com.brouken.player.BuildConfig;
+
+import java.io.File;
 import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -15,9 +20,12 @@ public final class EnhancedSubtitleParserFactory implements SubtitleParser.Facto
     private volatile double fallbackFrameRate;
     private final DefaultSubtitleParserFactory defaultFactory = new DefaultSubtitleParserFactory();
     private final List<WeakReference<MicroDvdParser>> microDvdParsers = new CopyOnWriteArrayList<>();
+    @Nullable private final CueCache cueCache;
 
-    public EnhancedSubtitleParserFactory(double fallbackFrameRate) {
+    // With cueCacheDir, parsed cues of subtitle files are kept there for faster reloads
+    public EnhancedSubtitleParserFactory(double fallbackFrameRate, @Nullable File cueCacheDir) {
         this.fallbackFrameRate = fallbackFrameRate;
+        this.cueCache = cueCacheDir != null ? new CueCache(cueCacheDir) : null;
     }
 
     @Override
@@ -44,10 +52,25 @@ public final class EnhancedSubtitleParserFactory implements SubtitleParser.Facto
                 fallbackParser = defaultFactory.create(format);
                 break;
         }
-        final MicroDvdParser microDvdParser = new MicroDvdParser(format, fallbackParser, fallbackFrameRate);
+        final double frameRate = fallbackFrameRate;
+        final MicroDvdParser microDvdParser = new MicroDvdParser(format, fallbackParser, frameRate);
         pruneStaleParsers();
         microDvdParsers.add(new WeakReference<>(microDvdParser));
-        return microDvdParser;
+        if (cueCache == null) {
+            return microDvdParser;
+        }
+        return new CachingSubtitleParser(microDvdParser, cueCache, getCacheSeed(format, frameRate));
+    }
+
+    // Everything besides the content that affects parsed cues
+    private static long getCacheSeed(Format format, double frameRate) {
+        String parameters = BuildConfig.VERSION_CODE + "/" + format.sampleMimeType + "/" + frameRate + "/" + format.frameRate;
+        byte[] bytes = parameters.getBytes(StandardCharsets.UTF_8);
+        long seed = CueCache.hash(0xcbf29ce484222325L, bytes, 0, bytes.length);
+        for (byte[] initializationData : format.initializationData) {
+            seed = CueCache.hash(seed, initializationData, 0, initializationData.length);
+        }
+        return seed;
     }
 
     public boolean setFallbackFrameRate(double newFallbackFrameRate) {
@@ -92,6 +92,11 @@ public final class MicroDvdParser implements SubtitleParser {
         return cueReplacementBehavior;
     }
 
+    // Format and header frame rate detection only, for cues loaded from cache
+    void detect(byte[] data, int offset, int length) {
+        ensureDetection(data, offset, length);
+    }
+
     private void ensureDetection(byte[] data, int offset, int length) {
         if (isSubtitleFormatDetected || length <= 0) return;
         subtitleFormat = getSubtitleFormat(data, offset, length);
@@ -104,7 +109,11 @@ public final class MicroDvdParser implements SubtitleParser {
             while ((line = reader.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty()) continue;
-                return getFormatFromSubtitleLine(line);
+                SubtitleFormat format = getFormatFromSubtitleLine(line);
+                if (format != SubtitleFormat.UNKNOWN) {
+                    detectFrameRateHeader(line);
+                }
+                return format;
             }
         } catch (IOException e) {
             throw new AssertionError(e);
@@ -189,6 +198,16 @@ public final class MicroDvdParser implements SubtitleParser {
         return new ParsedCue(cue, startTimeUs, endTimeUs);
     }
 
+    private void detectFrameRateHeader(String line) {
+        Matcher match = LINE_PATTERN.matcher(normalizeLine(line));
+        if (!match.matches()) return;
+        Long startFrame = parseLongOrNull(match.group(1));
+        Long endFrame = parseLongOrNull(match.group(2));
+        if (startFrame != null && endFrame != null && isFrameRateHeader(startFrame, endFrame, match.group(3))) {
+            applyFrameRateHeader(match.group(3));
+        }
+    }
+
     private String normalizeLine(String line) {
         String normalized = line.trim();
         if (!normalized.isEmpty() && normalized.charAt(0) == '\uFEFF') {